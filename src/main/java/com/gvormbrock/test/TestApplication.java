@@ -1,15 +1,23 @@
 package com.gvormbrock.test;
 
+import com.gvormbrock.test.config.NativeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
 @ComponentScan(basePackages = {"com.gvormbrock.test"})
+@ImportRuntimeHints(NativeHints.class)
 public class TestApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(TestApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(TestApplication.class, args);
+        // Training run of the CDS archive (profile cds): the classes of the startup are loaded, then the JVM exits
+        if (context.getEnvironment().getProperty("app.startup.exit-after-start", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
 }
@@ -0,0 +1,98 @@
+package com.gvormbrock.test.admission;
+
+import com.gvormbrock.test.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Admission control of the user endpoints, run before the controller and thus before any JPA work:
+ * <ul>
+ *     <li>a token bucket per client and endpoint (method and path pattern), one RateLimiter for the reads and one for
+ *     the writes, with their own rates</li>
+ *     <li>a ConcurrencyLimiter for the writes (POST, PUT, DELETE): they can not take all the connections of the pool,
+ *     the reads get the others</li>
+ * </ul>
+ * A request over a limit is rejected at once with a TooManyRequestsException (429 and Retry-After): 150 for the rate of
+ * the client, 151 for the concurrency of the writes. The client is given by the clientHeader header (set by a trusted
+ * gateway), else by the remote address.
+ * The metrics users.admission.rejected (by reason), users.admission.writes.limit and users.admission.writes.in-flight
+ * are given by /actuator/metrics.
+ */
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+    // The start time of an admitted write, until its completion, possibly on an async dispatch
+    private static final String WRITE_START_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".writeStart";
+
+    private final RateLimiter readLimiter;
+    private final RateLimiter writeLimiter;
+    private final ConcurrencyLimiter writeConcurrency;
+    private final String clientHeader;
+    private final Counter rateRejections;
+    private final Counter concurrencyRejections;
+
+    public AdmissionControlInterceptor(RateLimiter readLimiter, RateLimiter writeLimiter,
+                                       ConcurrencyLimiter writeConcurrency, String clientHeader,
+                                       MeterRegistry meterRegistry) {
+        this.readLimiter = readLimiter;
+        this.writeLimiter = writeLimiter;
+        this.writeConcurrency = writeConcurrency;
+        this.clientHeader = clientHeader;
+        this.rateRejections = Counter.builder("users.admission.rejected").tag("reason", "rate")
+                .description("Requests over the rate of their client").register(meterRegistry);
+        this.concurrencyRejections = Counter.builder("users.admission.rejected").tag("reason", "concurrency")
+                .description("Writes over the concurrency limit").register(meterRegistry);
+        Gauge.builder("users.admission.writes.limit", writeConcurrency, ConcurrencyLimiter::getLimit)
+                .description("Current limit of the writes handled at once").register(meterRegistry);
+        Gauge.builder("users.admission.writes.in-flight", writeConcurrency, ConcurrencyLimiter::getInFlight)
+                .description("Writes being handled").register(meterRegistry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            // The async and error dispatches of an admitted request
+            return true;
+        }
+        String method = request.getMethod();
+        boolean write = !HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method);
+        String endpoint = method + " " + request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        long waitNanos = (write ? writeLimiter : readLimiter).tryAcquire(clientOf(request) + " " + endpoint);
+        if (waitNanos > 0) {
+            rateRejections.increment();
+            throw new TooManyRequestsException(150, "Too many requests on " + endpoint,
+                    (waitNanos + 999_999_999L) / 1_000_000_000L);
+        }
+        if (write) {
+            if (!writeConcurrency.tryAcquire()) {
+                concurrencyRejections.increment();
+                throw new TooManyRequestsException(151, "Too many writes in progress", 1);
+            }
+            request.setAttribute(WRITE_START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        // Not called at the end of a dispatch which starts an async handling, but at the end of its async dispatch
+        Object start = request.getAttribute(WRITE_START_ATTRIBUTE);
+        if (start != null) {
+            request.removeAttribute(WRITE_START_ATTRIBUTE);
+            // 503: the write-behind queue is full, the writes must slow down as if they were slow
+            writeConcurrency.release(System.nanoTime() - (Long) start,
+                    response.getStatus() == HttpStatus.SERVICE_UNAVAILABLE.value());
+        }
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        String client = request.getHeader(clientHeader);
+        return client != null && !client.isBlank() ? client : request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,94 @@
+package com.gvormbrock.test.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limit of the number of requests handled at once, adapted to their latency (additive increase, multiplicative
+ * decrease): each request completed within the target latency raises the limit by 1 / limit, so by about one per
+ * limit requests, and a slower or failed one multiplies it by the backoff ratio. The limit thus follows what the
+ * database can serve without queuing, between minLimit and maxLimit.
+ * The limit is decreased at most once per round trip, as TCP does once per window: the slow requests started before
+ * the last decrease ran under the previous limit, they do not decrease it again. A burst of slow requests thus only
+ * decreases it once.
+ * The limit (a double in an AtomicLong), the time of the last decrease and the number of requests in flight are only
+ * updated by compare and set.
+ */
+public class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+    private final LongSupplier nanoClock;
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecreaseNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param nanoClock System::nanoTime, a fake clock in the tests
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyNanos, double backoffRatio,
+                              LongSupplier nanoClock) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + ".." + maxLimit + " or backoff ratio " + backoffRatio);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.backoffRatio = backoffRatio;
+        this.nanoClock = nanoClock;
+        // As if the last decrease was long ago: the first slow request decreases the limit
+        this.lastDecreaseNanos = new AtomicLong(nanoClock.getAsLong() - Long.MAX_VALUE / 2);
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+    }
+
+    /**
+     * @return true if the request can be handled now, then release must be called once it is completed
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos the time spent handling the request
+     * @param failed       true if the request failed for lack of resources (as a connection timeout)
+     */
+    public void release(long latencyNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        boolean decrease = failed || latencyNanos > targetLatencyNanos;
+        if (decrease) {
+            long now = nanoClock.getAsLong();
+            long lastDecrease = lastDecreaseNanos.get();
+            // The nanoTime values are only compared by their differences, they can overflow. Of the requests completed
+            // at once, a single one wins the compare and set.
+            if (now - latencyNanos - lastDecrease <= 0 || !lastDecreaseNanos.compareAndSet(lastDecrease, now)) {
+                return;
+            }
+        }
+        while (true) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double next = decrease ? Math.max(minLimit, limit * backoffRatio) : Math.min(maxLimit, limit + 1 / limit);
+            if (next == limit || limitBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,89 @@
+package com.gvormbrock.test.admission;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets by key, as the generic cell rate algorithm: a bucket is only its theoretical arrival time, the time at
+ * which it would be full again. A request is allowed if, once its emission interval (1 / rate) is added, this time is
+ * at most burst intervals ahead of now. Taking a token is a compare and set on the time of the key, and the keys are
+ * spread over the bins of a ConcurrentHashMap: nothing is locked and the buckets are never refilled by a timer.
+ * The buckets which are full again are forgotten once there are more than maxKeys of them: they are the same as new ones.
+ */
+public class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<String, AtomicLong> arrivalTimes = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep;
+
+    /**
+     * @param ratePerSecond the sustained number of requests per second of a key
+     * @param burst         the number of requests of a key allowed at once
+     * @param nanoClock     System::nanoTime, a fake clock in the tests
+     */
+    public RateLimiter(double ratePerSecond, int burst, int maxKeys, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate " + ratePerSecond + " or burst " + burst);
+        }
+        this.emissionIntervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.burstNanos = emissionIntervalNanos * burst;
+        this.maxKeys = maxKeys;
+        this.nanoClock = nanoClock;
+        this.lastSweep = nanoClock.getAsLong();
+    }
+
+    /**
+     * Take a token of the bucket of the key
+     *
+     * @return 0 if the request is allowed, else the nanoseconds to wait for the next token
+     */
+    public long tryAcquire(String key) {
+        long now = nanoClock.getAsLong();
+        AtomicLong arrivalTime = arrivalTimes.get(key);
+        if (arrivalTime == null) {
+            sweepIfFull(now);
+            arrivalTime = arrivalTimes.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = arrivalTime.get();
+            // The nanoTime values are only compared by their differences, they can overflow
+            long next = (current - now > 0 ? current : now) + emissionIntervalNanos;
+            long ahead = next - now;
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (arrivalTime.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return arrivalTimes.size();
+    }
+
+    private void sweepIfFull(long now) {
+        if (arrivalTimes.size() < maxKeys || now - lastSweep < SWEEP_INTERVAL_NANOS || !sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lastSweep = now;
+            for (Iterator<Map.Entry<String, AtomicLong>> it = arrivalTimes.entrySet().iterator(); it.hasNext(); ) {
+                if (it.next().getValue().get() - now <= 0) {
+                    it.remove();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+}
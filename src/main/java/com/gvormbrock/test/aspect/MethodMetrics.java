@@ -0,0 +1,43 @@
+package com.gvormbrock.test.aspect;
+
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The execution times recorded by ProfilingAspect, one MethodTimer per method.
+ * The timer of a method is created at its first call, the following calls only update it.
+ */
+@Component
+public class MethodMetrics {
+    private final ConcurrentHashMap<Method, MethodTimer> timers = new ConcurrentHashMap<>();
+
+    public void record(Method method, long nanos) {
+        MethodTimer timer = timers.get(method);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(method, m -> new MethodTimer(nameOf(m)));
+        }
+        timer.record(nanos);
+    }
+
+    /**
+     * @return the statistics of each method sorted by method name
+     */
+    public Map<String, MethodTimer.MethodStatistics> statistics() {
+        Map<String, MethodTimer.MethodStatistics> statistics = new TreeMap<>();
+        for (MethodTimer timer : timers.values()) {
+            statistics.put(timer.getName(), timer.statistics());
+        }
+        return statistics;
+    }
+
+    private static String nameOf(Method method) {
+        return method.getDeclaringClass().getSimpleName() + "." + method.getName()
+                + Arrays.stream(method.getParameterTypes()).map(Class::getSimpleName).collect(Collectors.joining(",", "(", ")"));
+    }
+}
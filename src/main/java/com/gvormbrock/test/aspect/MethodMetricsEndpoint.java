@@ -0,0 +1,24 @@
+package com.gvormbrock.test.aspect;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint /actuator/methods: the count, mean, p50, p99 and max execution times in nanoseconds of the
+ * profiled methods
+ */
+@Component
+@Endpoint(id = "methods")
+@RequiredArgsConstructor
+public class MethodMetricsEndpoint {
+    private final MethodMetrics methodMetrics;
+
+    @ReadOperation
+    public Map<String, MethodTimer.MethodStatistics> methods() {
+        return methodMetrics.statistics();
+    }
+}
@@ -0,0 +1,15 @@
+package com.gvormbrock.test.aspect;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The execution time of the annotated method, or of all the public methods of the annotated bean, is recorded by
+ * ProfilingAspect
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Profiled {
+}
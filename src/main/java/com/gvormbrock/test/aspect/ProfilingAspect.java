@@ -0,0 +1,27 @@
+package com.gvormbrock.test.aspect;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class ProfilingAspect {
+    private final MethodMetrics methodMetrics;
+
+    //AOP expression for which methods shall be intercepted: the beans or methods annotated with @Profiled
+    @Around("@within(com.gvormbrock.test.aspect.Profiled) || @annotation(com.gvormbrock.test.aspect.Profiled)")
+    public Object profile(ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return proceedingJoinPoint.proceed();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            methodMetrics.record(((MethodSignature) proceedingJoinPoint.getSignature()).getMethod(), elapsed);
+        }
+    }
+}
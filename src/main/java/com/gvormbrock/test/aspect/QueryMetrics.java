@@ -0,0 +1,121 @@
+package com.gvormbrock.test.aspect;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The execution times of the SQL statements recorded by QueryTimingDataSource, one MethodTimer per fingerprint: the
+ * statement without its literals, with its IN lists and multi-row VALUES collapsed, so the statements of the same shape
+ * share a timer whatever their parameters. At most app.sql.max-fingerprints are kept, the others are counted as
+ * OTHER. The fingerprint of a SQL text is computed once, then read from a cache.
+ * The metrics db.query (by statement type) and db.query.slow are given by /actuator/metrics, and each statement longer
+ * than app.sql.slow-query-threshold is logged with its fingerprint (without its values).
+ */
+@Component
+@Slf4j
+public class QueryMetrics {
+    public static final String OTHER = "OTHER";
+    private static final int MAX_CACHED_SQL = 4096;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$.])\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern ROW_LIST = Pattern.compile("(\\(\\?, \\.\\.\\.\\))(?:\\s*,\\s*\\(\\?, \\.\\.\\.\\))+");
+    private static final String[] TYPES = {"select", "insert", "update", "delete", "merge"};
+
+    private final long slowQueryNanos;
+    private final int maxFingerprints;
+    private final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MethodTimer> timers = new ConcurrentHashMap<>();
+    private final Timer[] typeTimers = new Timer[TYPES.length + 1];
+    private final Counter slowQueries;
+
+    // Without actuator (the test slices), the meters are only kept by the endpoint
+    public QueryMetrics(ObjectProvider<MeterRegistry> meterRegistries,
+                        @Value("${app.sql.slow-query-threshold:100ms}") Duration slowQueryThreshold,
+                        @Value("${app.sql.max-fingerprints:500}") int maxFingerprints) {
+        this.slowQueryNanos = slowQueryThreshold.toNanos();
+        this.maxFingerprints = maxFingerprints;
+        MeterRegistry meterRegistry = meterRegistries.getIfAvailable(SimpleMeterRegistry::new);
+        for (int i = 0; i <= TYPES.length; i++) {
+            typeTimers[i] = Timer.builder("db.query").tag("type", i < TYPES.length ? TYPES[i] : "other")
+                    .description("Execution of the SQL statements").register(meterRegistry);
+        }
+        this.slowQueries = Counter.builder("db.query.slow")
+                .description("SQL statements longer than app.sql.slow-query-threshold").register(meterRegistry);
+    }
+
+    public void record(String sql, long nanos) {
+        String fingerprint = fingerprint(sql);
+        MethodTimer timer = timers.get(fingerprint);
+        if (timer == null) {
+            timer = timers.size() < maxFingerprints
+                    ? timers.computeIfAbsent(fingerprint, MethodTimer::new)
+                    : timers.computeIfAbsent(OTHER, MethodTimer::new);
+        }
+        timer.record(nanos);
+        typeTimers[typeIndex(fingerprint)].record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos > slowQueryNanos) {
+            slowQueries.increment();
+            log.warn("Slow query ({} ms): {}", TimeUnit.NANOSECONDS.toMillis(nanos), fingerprint);
+        }
+    }
+
+    /**
+     * @return the statistics of each fingerprint sorted by fingerprint
+     */
+    public Map<String, MethodTimer.MethodStatistics> statistics() {
+        Map<String, MethodTimer.MethodStatistics> statistics = new TreeMap<>();
+        for (MethodTimer timer : timers.values()) {
+            statistics.put(timer.getName(), timer.statistics());
+        }
+        return statistics;
+    }
+
+    String fingerprint(String sql) {
+        if (sql == null) {
+            return OTHER;
+        }
+        String fingerprint = fingerprints.get(sql);
+        if (fingerprint == null) {
+            fingerprint = normalize(sql);
+            if (fingerprints.size() < MAX_CACHED_SQL) {
+                fingerprints.put(sql, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    public static String normalize(String sql) {
+        String fingerprint = STRING_LITERAL.matcher(sql).replaceAll("?");
+        fingerprint = NUMBER_LITERAL.matcher(fingerprint).replaceAll("?");
+        fingerprint = WHITESPACES.matcher(fingerprint).replaceAll(" ").trim();
+        fingerprint = PARAMETER_LIST.matcher(fingerprint).replaceAll("(?, ...)");
+        return ROW_LIST.matcher(fingerprint).replaceAll("$1, ...");
+    }
+
+    private static int typeIndex(String fingerprint) {
+        int end = fingerprint.indexOf(' ');
+        String keyword = (end < 0 ? fingerprint : fingerprint.substring(0, end)).toLowerCase(Locale.ROOT);
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(keyword)) {
+                return i;
+            }
+        }
+        return TYPES.length;
+    }
+}
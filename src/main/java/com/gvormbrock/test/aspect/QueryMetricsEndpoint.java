@@ -0,0 +1,24 @@
+package com.gvormbrock.test.aspect;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator endpoint /actuator/queries: the count, mean, p50, p99 and max execution times in nanoseconds of the SQL
+ * statements, by fingerprint
+ */
+@Component
+@Endpoint(id = "queries")
+@RequiredArgsConstructor
+public class QueryMetricsEndpoint {
+    private final QueryMetrics queryMetrics;
+
+    @ReadOperation
+    public Map<String, MethodTimer.MethodStatistics> queries() {
+        return queryMetrics.statistics();
+    }
+}
@@ -0,0 +1,86 @@
+package com.gvormbrock.test.aspect;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The physical connections of the pool, which statements record their execution time in QueryMetrics: the connections
+ * and the statements they create are proxies timing the execute methods, the other calls are only forwarded.
+ * It is given to HikariCP as its data source (see QueryMetricsConfig), so the pool, its metrics and its wait times are
+ * unchanged.
+ */
+public class QueryTimingDataSource extends DelegatingDataSource {
+    private static final Set<String> STATEMENT_FACTORIES = Set.of("createStatement", "prepareStatement", "prepareCall");
+    private static final Set<String> EXECUTIONS = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private final Supplier<QueryMetrics> queryMetrics;
+
+    /**
+     * @param queryMetrics resolved at the first connection: the data source is created before the beans recording
+     *                     the metrics
+     */
+    public QueryTimingDataSource(DataSource targetDataSource, Supplier<QueryMetrics> queryMetrics) {
+        super(targetDataSource);
+        this.queryMetrics = queryMetrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return timed(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return timed(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection timed(Connection connection) {
+        QueryMetrics metrics = queryMetrics.get();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement statement && STATEMENT_FACTORIES.contains(method.getName())) {
+                        String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                        return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                                new Class<?>[]{method.getReturnType()}, new TimedStatement(statement, sql, metrics));
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private record TimedStatement(Statement statement, String preparedSql, QueryMetrics metrics) implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!EXECUTIONS.contains(method.getName())) {
+                return QueryTimingDataSource.invoke(statement, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return QueryTimingDataSource.invoke(statement, method, args);
+            } finally {
+                // A plain statement is given its SQL at the execution
+                String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : preparedSql;
+                metrics.record(sql, System.nanoTime() - start);
+            }
+        }
+    }
+}
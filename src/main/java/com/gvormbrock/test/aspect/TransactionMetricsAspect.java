@@ -0,0 +1,62 @@
+package com.gvormbrock.test.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The duration of the transactions of UserService, from their start to their commit or rollback: the metric
+ * users.transaction by method and outcome (commit or rollback) is given by /actuator/metrics.
+ * The aspect runs first, around the transaction interceptor, so the commit is included.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TransactionMetricsAspect {
+    private final MeterRegistry meterRegistry;
+    // The commit and rollback timers of each method, registered at its first call
+    private final ConcurrentHashMap<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+    // Without actuator (the test slices), the timers are not published
+    public TransactionMetricsAspect(ObjectProvider<MeterRegistry> meterRegistries) {
+        this.meterRegistry = meterRegistries.getIfAvailable(SimpleMeterRegistry::new);
+    }
+
+    @Around("execution(* com.gvormbrock.test.service.UserService.*(..)) && @annotation(org.springframework.transaction.annotation.Transactional)")
+    public Object time(ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
+        long start = System.nanoTime();
+        boolean committed = false;
+        try {
+            Object result = proceedingJoinPoint.proceed();
+            committed = true;
+            return result;
+        } finally {
+            Method method = ((MethodSignature) proceedingJoinPoint.getSignature()).getMethod();
+            Timer[] methodTimers = timers.get(method);
+            if (methodTimers == null) {
+                methodTimers = timers.computeIfAbsent(method, m -> new Timer[]{timer(m, "commit"), timer(m, "rollback")});
+            }
+            methodTimers[committed ? 0 : 1].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(Method method, String outcome) {
+        return Timer.builder("users.transaction")
+                .tag("method", method.getName())
+                .tag("outcome", outcome)
+                .description("Transactions of UserService")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,62 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.admission.AdmissionControlInterceptor;
+import com.gvormbrock.test.admission.ConcurrencyLimiter;
+import com.gvormbrock.test.admission.RateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+/**
+ * Opt-in admission control of the user endpoints (app.admission.enabled=true), see AdmissionControlInterceptor.
+ * The interceptor runs first, before the one of open-in-view, so a rejected request does not even get an EntityManager.
+ * app.admission.writes.max-limit must stay below the size of the connection pool (10 by default) to keep connections
+ * for the reads.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.admission.enabled", havingValue = "true")
+@Profile("!reactive")
+public class AdmissionControlConfig {
+
+    @Bean
+    public AdmissionControlInterceptor admissionControlInterceptor(
+            MeterRegistry meterRegistry,
+            @Value("${app.admission.client-header:X-Client-Id}") String clientHeader,
+            @Value("${app.admission.max-clients:100000}") int maxClients,
+            @Value("${app.admission.reads.rate:200}") double readRate,
+            @Value("${app.admission.reads.burst:400}") int readBurst,
+            @Value("${app.admission.writes.rate:20}") double writeRate,
+            @Value("${app.admission.writes.burst:40}") int writeBurst,
+            @Value("${app.admission.writes.initial-limit:4}") int initialLimit,
+            @Value("${app.admission.writes.min-limit:1}") int minLimit,
+            @Value("${app.admission.writes.max-limit:8}") int maxLimit,
+            @Value("${app.admission.writes.target-latency:100ms}") Duration targetLatency,
+            @Value("${app.admission.writes.backoff-ratio:0.9}") double backoffRatio) {
+        return new AdmissionControlInterceptor(
+                new RateLimiter(readRate, readBurst, maxClients, System::nanoTime),
+                new RateLimiter(writeRate, writeBurst, maxClients, System::nanoTime),
+                new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, targetLatency.toNanos(), backoffRatio,
+                        System::nanoTime),
+                clientHeader, meterRegistry);
+    }
+
+    @Bean
+    public WebMvcConfigurer admissionControlConfigurer(AdmissionControlInterceptor admissionControlInterceptor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(admissionControlInterceptor)
+                        .addPathPatterns("/users", "/users/**")
+                        .order(Ordered.HIGHEST_PRECEDENCE);
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package com.gvormbrock.test.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * CBOR (application/cbor), the binary alternative to JSON chosen by the Accept and Content-Type headers: the same
+ * fields, without the text formatting and parsing of the numbers and with shorter strings. Its ObjectMapper is built by
+ * the builder of Spring Boot, so it has the same modules and spring.jackson settings as the JSON one.
+ * The streamed lists are CBOR sequences (application/cbor-seq): the items written one after the other.
+ */
+@Configuration(proxyBeanMethods = false)
+public class CborConfig {
+    public static final String APPLICATION_CBOR_SEQ_VALUE = "application/cbor-seq";
+    public static final MediaType APPLICATION_CBOR_SEQ = MediaType.parseMediaType(APPLICATION_CBOR_SEQ_VALUE);
+
+    // Added by Spring Boot to the converters of Spring MVC, in place of the default one
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
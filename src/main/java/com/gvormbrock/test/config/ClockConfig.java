@@ -0,0 +1,17 @@
+package com.gvormbrock.test.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+
+/**
+ * The clock of the application, replaced by a fixed clock in the tests on dates
+ */
+@Configuration(proxyBeanMethods = false)
+public class ClockConfig {
+    @Bean
+    public Clock clock() {
+        return Clock.systemDefaultZone();
+    }
+}
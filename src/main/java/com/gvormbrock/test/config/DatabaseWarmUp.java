@@ -0,0 +1,41 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.service.CountryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warm-up of the persistent profile, before the application is ready: after a restart the page cache of the database
+ * file is empty, so the first requests would read their pages from the disk. The countries are loaded in CountryService
+ * and in the second level cache, then the pages of the latest users (the rows and their (name, birthday) index entries,
+ * read by the duplicate checks) are read once.
+ */
+@Component
+@Profile("persistent")
+@RequiredArgsConstructor
+@Slf4j
+public class DatabaseWarmUp implements ApplicationRunner {
+    private final CountryService countryService;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.persistent.warm-up-users:10000}")
+    private int warmUpUsers;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        countryService.refresh();
+        // A range on the primary key (an order by id desc would scan the table): the ids are given by increasing blocks
+        Integer users = jdbcTemplate.queryForObject("select count(*) from user_table latest "
+                + "where latest.id > (select max(id) - ? from user_table) "
+                + "and exists (select 1 from user_table k use index (UK_USER_NAME_BIRTHDAY) "
+                + "where k.name = latest.name and k.birthday = latest.birthday)", Integer.class, warmUpUsers);
+        log.info("Database warmed up in {} ms: {} users read", (System.nanoTime() - start) / 1_000_000, users);
+    }
+}
@@ -0,0 +1,76 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.event.EventType;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * The JCache (Ehcache) regions of the Hibernate second level cache: the User and Country entities and the query
+ * cache. The entity and query regions are bounded in number of entries and expire after a time to live, both set in
+ * application.properties. The update timestamps region must never lose an entry, it is neither bounded nor expired.
+ */
+@Configuration(proxyBeanMethods = false)
+public class EntityCacheConfig {
+    public static final String USER_REGION = User.class.getName();
+    public static final String COUNTRY_REGION = Country.class.getName();
+    public static final String QUERY_REGION = "default-query-results-region";
+    public static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Bean
+    public EntityCacheEvictions entityCacheEvictions() {
+        return new EntityCacheEvictions();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CacheManager entityCacheManager(EntityCacheEvictions evictions,
+                                           @Value("${app.cache.user.max-entries}") long userMaxEntries,
+                                           @Value("${app.cache.user.time-to-live}") Duration userTimeToLive,
+                                           @Value("${app.cache.country.max-entries}") long countryMaxEntries,
+                                           @Value("${app.cache.country.time-to-live}") Duration countryTimeToLive,
+                                           @Value("${app.cache.query.max-entries}") long queryMaxEntries,
+                                           @Value("${app.cache.query.time-to-live}") Duration queryTimeToLive) {
+        org.ehcache.config.Configuration configuration = ConfigurationBuilder.newConfigurationBuilder()
+                .withCache(USER_REGION, region(USER_REGION, userMaxEntries, userTimeToLive, evictions))
+                .withCache(COUNTRY_REGION, region(COUNTRY_REGION, countryMaxEntries, countryTimeToLive, evictions))
+                .withCache(QUERY_REGION, region(QUERY_REGION, queryMaxEntries, queryTimeToLive, evictions))
+                .withCache(TIMESTAMPS_REGION, CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                        ResourcePoolsBuilder.heap(Long.MAX_VALUE)))
+                .build();
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        // One cache manager per application context: the tests start several contexts in the same JVM
+        return provider.getCacheManager(URI.create("urn:gvormbrock:entity-cache:" + UUID.randomUUID()), configuration);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer entityCacheManagerCustomizer(CacheManager entityCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, entityCacheManager);
+    }
+
+    private static CacheConfigurationBuilder<Object, Object> region(String name, long maxEntries, Duration timeToLive,
+                                                                   EntityCacheEvictions evictions) {
+        return CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                        ResourcePoolsBuilder.heap(maxEntries))
+                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(timeToLive))
+                .withService(CacheEventListenerConfigurationBuilder
+                        .newEventListenerConfiguration(evictions.listener(name), EventType.EVICTED, EventType.EXPIRED)
+                        .unordered()
+                        .asynchronous());
+    }
+}
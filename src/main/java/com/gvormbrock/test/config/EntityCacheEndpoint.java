@@ -0,0 +1,49 @@
+package com.gvormbrock.test.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint /actuator/entitycache: the hits, misses, puts, hit ratio, evictions and expirations of each region
+ * of the Hibernate second level cache
+ */
+@Component
+@Endpoint(id = "entitycache")
+@RequiredArgsConstructor
+public class EntityCacheEndpoint {
+    private final EntityManagerFactory entityManagerFactory;
+    private final EntityCacheEvictions evictions;
+
+    @ReadOperation
+    public Map<String, RegionStatistics> regions() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Map<String, RegionStatistics> regions = new LinkedHashMap<>();
+        for (String region : new String[]{EntityCacheConfig.USER_REGION, EntityCacheConfig.COUNTRY_REGION}) {
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(region);
+            regions.put(region, RegionStatistics.of(region, regionStatistics.getHitCount(),
+                    regionStatistics.getMissCount(), regionStatistics.getPutCount(), evictions));
+        }
+        regions.put(EntityCacheConfig.QUERY_REGION, RegionStatistics.of(EntityCacheConfig.QUERY_REGION,
+                statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount(),
+                evictions));
+        return regions;
+    }
+
+    public record RegionStatistics(long hitCount, long missCount, long putCount, double hitRatio,
+                                   long evictionCount, long expirationCount) {
+        static RegionStatistics of(String region, long hits, long misses, long puts, EntityCacheEvictions evictions) {
+            long lookups = hits + misses;
+            return new RegionStatistics(hits, misses, puts, lookups == 0 ? 0.0 : (double) hits / lookups,
+                    evictions.getEvictionCount(region), evictions.getExpirationCount(region));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.gvormbrock.test.config;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count the entries evicted (the region is full) and expired (time to live) of each second level cache region
+ */
+public class EntityCacheEvictions {
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    CacheEventListener<Object, Object> listener(String region) {
+        Counters regionCounters = counters.computeIfAbsent(region, name -> new Counters());
+        return event -> regionCounters.count(event);
+    }
+
+    public long getEvictionCount(String region) {
+        Counters regionCounters = counters.get(region);
+        return regionCounters == null ? 0 : regionCounters.evicted.sum();
+    }
+
+    public long getExpirationCount(String region) {
+        Counters regionCounters = counters.get(region);
+        return regionCounters == null ? 0 : regionCounters.expired.sum();
+    }
+
+    private static class Counters {
+        private final LongAdder evicted = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+
+        void count(CacheEvent<?, ?> event) {
+            if (event.getType() == EventType.EVICTED) {
+                evicted.increment();
+            } else if (event.getType() == EventType.EXPIRED) {
+                expired.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.aspect.MethodTimer;
+import com.gvormbrock.test.dto.UserBatchResultDto;
+import com.gvormbrock.test.dto.UserDeleteResultDto;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserSearchCriteria;
+import com.gvormbrock.test.dto.UserSearchResultDto;
+import com.gvormbrock.test.dto.UserWriteStatusDto;
+import com.gvormbrock.test.exception.ErrorDetails;
+import com.gvormbrock.test.exception.FieldViolation;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.repository.UserIdGenerator;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * The reflection and resources used at runtime which the AOT processing (mvn -Pnative) can not find by itself:
+ * the entities and the DTOs are read by Hibernate and Jackson with reflection, including the bodies written by hand
+ * (ErrorDetails) and the UserDto built by the JPQL constructor expressions. Registered by TestApplication.
+ */
+public class NativeHints implements RuntimeHintsRegistrar {
+    private static final Class<?>[] ENTITIES = {User.class, Country.class};
+    private static final Class<?>[] BOUND_TYPES = {UserDto.class, UserBatchResultDto.class, UserWriteStatusDto.class,
+            UserSearchCriteria.class, UserSearchResultDto.class, UserDeleteResultDto.class,
+            ErrorDetails.class, FieldViolation.class, MethodTimer.MethodStatistics.class,
+            EntityCacheEndpoint.RegionStatistics.class};
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> entity : ENTITIES) {
+            hints.reflection().registerType(entity, MemberCategory.DECLARED_FIELDS,
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_METHODS);
+        }
+        // Instantiated by Hibernate from its name in User
+        hints.reflection().registerType(UserIdGenerator.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), BOUND_TYPES);
+        // The scripts of the persistent and sharded profiles
+        hints.resources().registerPattern("db/*.sql");
+    }
+}
@@ -0,0 +1,61 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.service.CountryService;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * The R2DBC access of the reactive profile, to the same H2 database as JPA.
+ * The connection factory and the transaction manager are not beans: the auto-configuration would then initialize
+ * the database a second time through R2DBC, and the @Transactional methods of the JPA services would have two
+ * transaction managers to choose from. The R2DBC auto-configurations are excluded in application.properties.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("reactive")
+public class ReactiveConfig {
+    @Bean
+    public DatabaseClient reactiveDatabaseClient(@Value("${app.reactive.r2dbc-url}") String url,
+                                                 @Value("${spring.datasource.username}") String username,
+                                                 @Value("${spring.datasource.password}") String password,
+                                                 @Value("${app.reactive.pool-size}") int poolSize) {
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build();
+        // Same size as the JDBC pool by default, so that both stacks are compared with the same number of connections
+        ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .initialSize(poolSize)
+                .maxSize(poolSize)
+                .build());
+        return DatabaseClient.create(pool);
+    }
+
+    @Bean
+    public DisposableBean reactiveConnectionPoolCloser(DatabaseClient reactiveDatabaseClient) {
+        return () -> ((ConnectionPool) reactiveDatabaseClient.getConnectionFactory()).dispose();
+    }
+
+    @Bean
+    public TransactionalOperator reactiveTransactionalOperator(DatabaseClient reactiveDatabaseClient) {
+        return TransactionalOperator.create(new R2dbcTransactionManager(reactiveDatabaseClient.getConnectionFactory()));
+    }
+
+    /**
+     * Load the countries at startup, so that the user rules do not read the database on an event loop thread
+     */
+    @Bean
+    public ApplicationRunner countrySnapshotLoader(CountryService countryService) {
+        return args -> countryService.refresh();
+    }
+}
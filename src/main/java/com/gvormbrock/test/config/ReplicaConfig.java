@@ -0,0 +1,105 @@
+package com.gvormbrock.test.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Opt-in read replica (app.replica.enabled=true): the read only transactions (@Transactional(readOnly = true)) use the
+ * replica pool, the others the primary pool configured by spring.datasource, see ReplicaRoutingDataSource.
+ * The replica is app.replica.url, a second in-memory H2 database by default, kept up to date by ReplicaSynchronizer
+ * every app.replica.sync-interval. The client of a request, for the reads of its own writes, is given by the header
+ * app.replica.client-header, else by the remote address.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.replica.enabled", havingValue = "true")
+public class ReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("app.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties, @Value("${app.replica.url}") String url) {
+        HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(properties.determineUsername())
+                .password(properties.determinePassword())
+                .build();
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             HikariDataSource replicaDataSource,
+                                                             @Value("${app.replica.max-lag:5s}") Duration maxLag,
+                                                             MeterRegistry meterRegistry) {
+        return new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, maxLag, meterRegistry);
+    }
+
+    // Spring holds the connection of a session until its end, so with open-in-view a request would keep the target of
+    // its first transaction: the connection is released after each transaction to be routed again
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandlingCustomizer() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+
+    // The data source of JPA, JdbcTemplate and the SQL initialization
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReplicaSynchronizer replicaSynchronizer(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                                                   ReplicaRoutingDataSource replicaRoutingDataSource,
+                                                   @Value("${app.replica.sync-interval:1s}") Duration interval) {
+        return new ReplicaSynchronizer(primaryDataSource, replicaDataSource, replicaRoutingDataSource, interval);
+    }
+
+    @Bean
+    public OncePerRequestFilter replicaClientFilter(@Value("${app.replica.client-header:X-Client-Id}") String clientHeader) {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                    throws ServletException, IOException {
+                String client = request.getHeader(clientHeader);
+                ReplicaRoutingDataSource.setClient(client != null && !client.isBlank() ? client : request.getRemoteAddr());
+                try {
+                    chain.doFilter(request, response);
+                } finally {
+                    ReplicaRoutingDataSource.setClient(null);
+                }
+            }
+        };
+    }
+}
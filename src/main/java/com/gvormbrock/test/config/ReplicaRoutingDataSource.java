@@ -0,0 +1,157 @@
+package com.gvormbrock.test.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Route the connections of the read only transaction to the replica and all the others to the primary. It is used
+ * behind a LazyConnectionDataSourceProxy (see ReplicaConfig): the connection is only taken at the first statement,
+ * once the transaction is known to be read only.
+ * <p>
+ * The replica lags behind the primary: each commit of a write transaction increments the primary position, and the
+ * replica is at the position read when its last synchronization started (see ReplicaSynchronizer). A client reads
+ * from the primary while the replica is behind its last write (read your writes), and every client does while the
+ * replica has not been synchronized for maxLag. The client is given by the request (setClient), the writes without
+ * any request share the same anonymous client.
+ * The reads of a request can be kept on a single target with readFrom, for example to tag their content with the copy
+ * of the replica that they read.
+ * The metrics db.routing.reads (by target) and db.replica.lag are given by /actuator/metrics.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    public enum Target {PRIMARY, REPLICA}
+
+    /**
+     * The target of the reads of a request, with the number of the copy of the replica when it is the replica (-1 for
+     * the primary). The number is incremented by each synchronizedUpTo.
+     */
+    public record ReadTarget(Target target, long replicaCopy) {
+    }
+
+    private static final String ANONYMOUS = "";
+    private static final ThreadLocal<String> CLIENT = new ThreadLocal<>();
+    private static final ThreadLocal<Target> PINNED = new ThreadLocal<>();
+
+    private final long maxLagNanos;
+    private final AtomicLong primaryPosition = new AtomicLong();
+    // Incremented after each copy has been committed on the replica
+    private final AtomicLong replicaCopies = new AtomicLong();
+    // The position of the last write of each client, until the replica has reached it
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private final Counter primaryReads;
+    private final Counter replicaReads;
+    private volatile long replicaPosition = -1;
+    private volatile long replicaSynchronizedNanos;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration maxLag, MeterRegistry meterRegistry) {
+        this.maxLagNanos = maxLag.toNanos();
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.primaryReads = Counter.builder("db.routing.reads").tag("target", "primary")
+                .description("Read only transactions").register(meterRegistry);
+        this.replicaReads = Counter.builder("db.routing.reads").tag("target", "replica")
+                .description("Read only transactions").register(meterRegistry);
+        TimeGauge.builder("db.replica.lag", this, TimeUnit.NANOSECONDS,
+                        dataSource -> replicaPosition < 0 ? 0 : System.nanoTime() - replicaSynchronizedNanos)
+                .description("Time since the start of the last synchronization of the replica").register(meterRegistry);
+    }
+
+    /**
+     * Set the client of the current thread, null to clear it
+     */
+    public static void setClient(String client) {
+        if (client == null) {
+            CLIENT.remove();
+        } else {
+            CLIENT.set(client);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return Target.PRIMARY;
+        }
+        String client = CLIENT.get() == null ? ANONYMOUS : CLIENT.get();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    lastWrites.merge(client, primaryPosition.incrementAndGet(), Math::max);
+                }
+            });
+            return Target.PRIMARY;
+        }
+        Target pinned = PINNED.get();
+        if (pinned == Target.REPLICA || pinned == null && isReplicaCurrentFor(client)) {
+            replicaReads.increment();
+            return Target.REPLICA;
+        }
+        primaryReads.increment();
+        return Target.PRIMARY;
+    }
+
+    /**
+     * @return true if the replica has the last write of the client (null for the anonymous one) and is not too late
+     */
+    public boolean isReplicaCurrentFor(String client) {
+        long position = replicaPosition;
+        if (position < 0 || System.nanoTime() - replicaSynchronizedNanos > maxLagNanos) {
+            return false;
+        }
+        Long lastWrite = lastWrites.get(client == null ? ANONYMOUS : client);
+        return lastWrite == null || lastWrite <= position;
+    }
+
+    /**
+     * @return the target of the read only transactions of the client of the current thread, if they start now
+     */
+    public ReadTarget readTarget() {
+        // Read before the check: a copy committed in between is only newer
+        long copy = replicaCopies.get();
+        return isReplicaCurrentFor(CLIENT.get()) ? new ReadTarget(Target.REPLICA, copy) : new ReadTarget(Target.PRIMARY, -1);
+    }
+
+    /**
+     * Run the work with all its read only transactions on the target, even if the replica gets too late meanwhile. The
+     * content read from the replica is the copy of the target or a newer one.
+     */
+    public <T> T readFrom(ReadTarget target, Supplier<T> work) {
+        Target previous = PINNED.get();
+        PINNED.set(target.target());
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                PINNED.remove();
+            } else {
+                PINNED.set(previous);
+            }
+        }
+    }
+
+    public long getPrimaryPosition() {
+        return primaryPosition.get();
+    }
+
+    /**
+     * Called once the replica has all the writes committed up to the position, read when the copy started at startNanos
+     */
+    public void synchronizedUpTo(long position, long startNanos) {
+        replicaPosition = position;
+        replicaSynchronizedNanos = startNanos;
+        lastWrites.values().removeIf(lastWrite -> lastWrite <= position);
+        replicaCopies.incrementAndGet();
+    }
+}
@@ -0,0 +1,136 @@
+package com.gvormbrock.test.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in of the replication for a local H2 replica: the schema of the primary is created on the replica at startup
+ * (SCRIPT NODATA), then the data is copied every interval (the INSERT statements of SCRIPT), in a single transaction
+ * of the replica so its readers see either the previous copy or the new one. The foreign keys of the replica are not
+ * checked, the primary has checked the rows. A failed copy is logged and retried at the next interval, meanwhile the
+ * lag grows and the reads go back to the primary.
+ * A real replica is kept up to date by the database itself, this class is then not needed.
+ */
+@Slf4j
+public class ReplicaSynchronizer implements SmartLifecycle {
+    private final DataSource primary;
+    private final DataSource replica;
+    private final ReplicaRoutingDataSource routingDataSource;
+    private final Duration interval;
+    private ScheduledExecutorService scheduler;
+    private boolean schemaCreated;
+
+    public ReplicaSynchronizer(DataSource primary, DataSource replica, ReplicaRoutingDataSource routingDataSource,
+                               Duration interval) {
+        this.primary = primary;
+        this.replica = replica;
+        this.routingDataSource = routingDataSource;
+        this.interval = interval;
+    }
+
+    /**
+     * Copy the primary to the replica now
+     */
+    public synchronized void synchronize() {
+        // Read before the copy: the writes committed after may be missing from it
+        long position = routingDataSource.getPrimaryPosition();
+        long start = System.nanoTime();
+        try (Connection source = primary.getConnection(); Connection target = replica.getConnection()) {
+            if (!schemaCreated) {
+                try (Statement statement = target.createStatement()) {
+                    for (String sql : script(source, "SCRIPT NODATA NOPASSWORDS NOSETTINGS")) {
+                        statement.execute(sql);
+                    }
+                    statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+                }
+                schemaCreated = true;
+            }
+            List<String> inserts = script(source, "SCRIPT COLUMNS NOPASSWORDS NOSETTINGS").stream()
+                    .filter(sql -> sql.startsWith("INSERT INTO "))
+                    .toList();
+            target.setAutoCommit(false);
+            try (Statement statement = target.createStatement()) {
+                for (String table : tables(target)) {
+                    statement.executeUpdate("DELETE FROM " + table);
+                }
+                for (String sql : inserts) {
+                    statement.execute(sql);
+                }
+                target.commit();
+            } catch (SQLException e) {
+                target.rollback();
+                throw e;
+            } finally {
+                target.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot synchronize the replica", e);
+        }
+        routingDataSource.synchronizedUpTo(position, start);
+    }
+
+    private static List<String> script(Connection connection, String command) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(command)) {
+            while (resultSet.next()) {
+                statements.add(resultSet.getString(1));
+            }
+        }
+        return statements;
+    }
+
+    private static List<String> tables(Connection connection) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select table_schema, table_name from information_schema.tables "
+                     + "where table_schema = 'PUBLIC' and table_type = 'BASE TABLE'")) {
+            while (resultSet.next()) {
+                tables.add("\"" + resultSet.getString(1) + "\".\"" + resultSet.getString(2) + "\"");
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public synchronized void start() {
+        // The replica is ready before the application
+        synchronize();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-synchronizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                synchronize();
+            } catch (RuntimeException e) {
+                log.error("The replica is not synchronized", e);
+            }
+        }, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.repository.UserShards;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Route the connections to the shard of the current thread (see UserShards), the first shard out of any shard. It is
+ * used behind a LazyConnectionDataSourceProxy (see ShardingConfig): the shard is the one of the first statement.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    public ShardRoutingDataSource(UserShards shards) {
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.count(); shard++) {
+            targets.put(shard, shards.getDataSources().get(shard));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.getDataSources().get(0));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return UserShards.current();
+    }
+}
@@ -0,0 +1,105 @@
+package com.gvormbrock.test.config;
+
+import com.gvormbrock.test.aspect.QueryMetrics;
+import com.gvormbrock.test.repository.SnowflakeIdGenerator;
+import com.gvormbrock.test.repository.UserKeyIndex;
+import com.gvormbrock.test.repository.UserShards;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharded mode (spring.profiles.active=sharded): the users are spread over the databases of app.sharding.urls by the
+ * hash of their id, see UserShardingAspect. Every shard is given db/schema.sql, the countries of db/data.sql and the
+ * key index of db/sharding.sql at the startup, before Hibernate checks the first one. The pools of the shards are
+ * configured by app.sharding.hikari, their metrics are the hikaricp ones of the pools shard-0, shard-1...
+ * <p>
+ * The write-behind and the read replica are not supported on the shards.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("sharded")
+public class ShardingConfig {
+
+    @Bean
+    public UserShards userShards(DataSourceProperties properties, @Value("${app.sharding.urls}") List<String> urls,
+                                 Environment environment, ObjectProvider<PlatformTransactionManager> transactionManager,
+                                 ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<QueryMetrics> queryMetrics) {
+        if (environment.getProperty("app.write-behind.enabled", Boolean.class, false)
+                || environment.getProperty("app.replica.enabled", Boolean.class, false)) {
+            throw new IllegalStateException("The write-behind and the read replica can not be enabled with the sharding");
+        }
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource("db/schema.sql"),
+                new ClassPathResource("db/data.sql"), new ClassPathResource("db/sharding.sql"));
+        List<HikariDataSource> dataSources = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                    .driverClassName(properties.determineDriverClassName())
+                    .url(url.trim())
+                    .username(properties.determineUsername())
+                    .password(properties.determinePassword())
+                    .build();
+            Binder.get(environment).bind("app.sharding.hikari", Bindable.ofInstance(dataSource));
+            dataSource.setPoolName("shard-" + dataSources.size());
+            dataSource.setMetricRegistry(meterRegistry.getIfAvailable());
+            if (environment.getProperty("app.sql.metrics.enabled", Boolean.class, true)) {
+                QueryMetricsConfig.timeStatements(dataSource, queryMetrics);
+            }
+            populator.execute(dataSource);
+            dataSources.add(dataSource);
+        }
+        return new UserShards(dataSources, transactionManager);
+    }
+
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(@Value("${app.sharding.node-id:0}") int nodeId, Clock clock) {
+        return new SnowflakeIdGenerator(nodeId, clock);
+    }
+
+    @Bean
+    public UserKeyIndex userKeyIndex(UserShards userShards, Clock clock,
+                                     @Value("${app.sharding.claim-timeout:1m}") Duration claimTimeout) {
+        return new UserKeyIndex(userShards, clock, claimTimeout);
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(UserShards userShards) {
+        return new ShardRoutingDataSource(userShards);
+    }
+
+    // As with the replica: the connection of a session is released after each transaction to be routed again
+    @Bean
+    public HibernatePropertiesCustomizer shardConnectionHandlingCustomizer() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+
+    // The data source of JPA: the transactions of UserService which only call UserRepository never take a connection
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+}
@@ -0,0 +1,68 @@
+package com.gvormbrock.test.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in mode (app.virtual-threads.enabled=true) where the requests, the asynchronous responses (NDJSON streams) and
+ * thus the service layer run on virtual threads instead of the Tomcat and task executor thread pools.
+ * The number of concurrent requests is not bounded by a thread pool anymore: the connection pool becomes the limit of
+ * the database work, so it is sized by app.virtual-threads.max-pool-size and the requests wait for a connection at
+ * most spring.datasource.hikari.connection-timeout. Tomcat accepts up to app.virtual-threads.max-connections
+ * connections, each request getting its own thread. With the platform threads the default server.tomcat.max-connections
+ * is kept: more connections would only queue behind the fixed worker pool.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    // Its connector customizer is added after the one of server.tomcat.max-connections (ordered first), so it wins
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsMaxConnectionsCustomizer(
+            @Value("${app.virtual-threads.max-connections:10000}") int maxConnections) {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            if (connector.getProtocolHandler() instanceof AbstractProtocol<?> protocol) {
+                protocol.setMaxConnections(maxConnections);
+            }
+        });
+    }
+
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    @Bean
+    public static BeanPostProcessor virtualThreadsConnectionPoolSizer(
+            @Value("${app.virtual-threads.max-pool-size:50}") int maxPoolSize) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource) {
+                    // A fixed size pool: the connections are not opened and closed with the load peaks
+                    dataSource.setMaximumPoolSize(maxPoolSize);
+                    dataSource.setMinimumIdle(maxPoolSize);
+                }
+                return bean;
+            }
+        };
+    }
+}
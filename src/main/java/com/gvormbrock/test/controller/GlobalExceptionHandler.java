@@ -1,10 +1,20 @@
 package com.gvormbrock.test.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.gvormbrock.test.exception.ErrorDetails;
 import com.gvormbrock.test.exception.ErrorServerException;
 import com.gvormbrock.test.exception.NotFoundException;
+import com.gvormbrock.test.exception.PreconditionFailedException;
+import com.gvormbrock.test.exception.ServiceUnavailableException;
+import com.gvormbrock.test.exception.TooManyRequestsException;
+import com.gvormbrock.test.exception.ValidationErrorException;
 import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.ServletRequestBindingException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -13,51 +23,111 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+/**
+ * Render the exceptions as ErrorDetails. The stack traces are only rendered in devErrorMessage in dev mode
+ * (app.errors.include-stacktrace=true, set by the dev profile). The bodies are written by an ObjectWriter built once,
+ * whatever the Accept header of the request.
+ */
 @ControllerAdvice
 public class GlobalExceptionHandler {
+    private final ObjectWriter errorWriter;
+    private final boolean includeStacktrace;
+
+    public GlobalExceptionHandler(ObjectMapper objectMapper,
+                                  @Value("${app.errors.include-stacktrace:false}") boolean includeStacktrace) {
+        this.errorWriter = objectMapper.writerFor(ErrorDetails.class);
+        this.includeStacktrace = includeStacktrace;
+    }
+
     @ExceptionHandler(ServletRequestBindingException.class)
-    public ResponseEntity<ErrorDetails> servletRequestBindingException(ServletRequestBindingException e) {
+    public ResponseEntity<byte[]> servletRequestBindingException(ServletRequestBindingException e) {
         ErrorDetails errorDetails = new ErrorDetails();
         errorDetails.setErrorMessage(e.getMessage());
-        errorDetails.setDevErrorMessage(getStackTraceAsString(e));
-        return new ResponseEntity<>(errorDetails, HttpStatus.BAD_REQUEST);
+        return render(errorDetails, e, HttpStatus.BAD_REQUEST);
     }
 
 
     @ExceptionHandler(EntityNotFoundException.class)
-    public ResponseEntity<ErrorDetails> notFoundException(EntityNotFoundException e) {
+    public ResponseEntity<byte[]> notFoundException(EntityNotFoundException e) {
         ErrorDetails errorDetails = new ErrorDetails();
         errorDetails.setErrorCode(404);
         errorDetails.setErrorMessage(e.getMessage());
-        errorDetails.setDevErrorMessage(getStackTraceAsString(e));
-        return new ResponseEntity<>(errorDetails, HttpStatus.NOT_FOUND);
+        return render(errorDetails, e, HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(NotFoundException.class)
-    public ResponseEntity<ErrorDetails> notFoundException(NotFoundException e) {
+    public ResponseEntity<byte[]> notFoundException(NotFoundException e) {
+        ErrorDetails errorDetails = new ErrorDetails();
+        errorDetails.setErrorCode(e.getErrorCode());
+        errorDetails.setErrorMessage(e.getMessage());
+        return render(errorDetails, e, HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<byte[]> preconditionFailedException(PreconditionFailedException e) {
+        ErrorDetails errorDetails = new ErrorDetails();
+        errorDetails.setErrorCode(e.getErrorCode());
+        errorDetails.setErrorMessage(e.getMessage());
+        return render(errorDetails, e, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @ExceptionHandler(ValidationErrorException.class)
+    public ResponseEntity<byte[]> validationErrorException(ValidationErrorException e) {
         ErrorDetails errorDetails = new ErrorDetails();
         errorDetails.setErrorCode(e.getErrorCode());
         errorDetails.setErrorMessage(e.getMessage());
-        errorDetails.setDevErrorMessage(getStackTraceAsString(e));
-        return new ResponseEntity<>(errorDetails, HttpStatus.NOT_FOUND);
+        errorDetails.getAdditionalData().put("violations", e.getViolations());
+        return render(errorDetails, e, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<byte[]> serviceUnavailableException(ServiceUnavailableException e) {
+        ErrorDetails errorDetails = new ErrorDetails();
+        errorDetails.setErrorCode(e.getErrorCode());
+        errorDetails.setErrorMessage(e.getMessage());
+        return render(errorDetails, e, ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds())));
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<byte[]> tooManyRequestsException(TooManyRequestsException e) {
+        ErrorDetails errorDetails = new ErrorDetails();
+        errorDetails.setErrorCode(e.getErrorCode());
+        errorDetails.setErrorMessage(e.getMessage());
+        return render(errorDetails, e, ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds())));
     }
 
     @ExceptionHandler(ErrorServerException.class)
-    public ResponseEntity<ErrorDetails> errorServerException(ErrorServerException e) {
+    public ResponseEntity<byte[]> errorServerException(ErrorServerException e) {
         ErrorDetails errorDetails = new ErrorDetails();
         errorDetails.setErrorCode(e.getErrorCode());
         errorDetails.setErrorMessage(e.getMessage());
-        errorDetails.setDevErrorMessage(getStackTraceAsString(e));
-        return new ResponseEntity<>(errorDetails, HttpStatus.INTERNAL_SERVER_ERROR);
+        return render(errorDetails, e, HttpStatus.INTERNAL_SERVER_ERROR);
     }
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<ErrorDetails> exception(Exception e) {
+    public ResponseEntity<byte[]> exception(Exception e) {
         ErrorDetails errorDetails = new ErrorDetails();
         errorDetails.setErrorMessage(e.getMessage());
-        errorDetails.setDevErrorMessage(getStackTraceAsString(e));
-        return new ResponseEntity<>(errorDetails, HttpStatus.INTERNAL_SERVER_ERROR);
+        return render(errorDetails, e, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    private ResponseEntity<byte[]> render(ErrorDetails errorDetails, Exception e, HttpStatus status) {
+        return render(errorDetails, e, ResponseEntity.status(status));
+    }
+
+    private ResponseEntity<byte[]> render(ErrorDetails errorDetails, Exception e, ResponseEntity.BodyBuilder response) {
+        if (includeStacktrace) {
+            errorDetails.setDevErrorMessage(getStackTraceAsString(e));
+        }
+        try {
+            return response
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(errorWriter.writeValueAsBytes(errorDetails));
+        } catch (JsonProcessingException jsonProcessingException) {
+            throw new IllegalStateException("Cannot write the error details", jsonProcessingException);
+        }
+    }
 
     private String getStackTraceAsString(Exception e) {
         StringWriter sw = new StringWriter();
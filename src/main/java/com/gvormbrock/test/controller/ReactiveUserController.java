@@ -0,0 +1,75 @@
+package com.gvormbrock.test.controller;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.ReactiveUserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The user API of the reactive profile (WebFlux on R2DBC), with the same paths, parameters and responses as
+ * UserController but the batch import
+ */
+@RestController
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveUserController {
+
+    private final ReactiveUserService reactiveUserService;
+
+    /**
+     * GET a page of users ordered by id:
+     * The request parameter after is the id of the last user of the previous page (0 for the first page).
+     * The request parameter limit is the page size (100 by default, at most 1000).
+     */
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping(value = "/users", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<UserDto> listUsers(@RequestParam(name = "after", defaultValue = "0") long after,
+                                   @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return reactiveUserService.findAll(after, limit);
+    }
+
+    /**
+     * GET all the users as NDJSON (one UserDto per line):
+     * The users are read by pages as the client reads the response, a slow client does not make the server buffer them.
+     */
+    @GetMapping(value = "/users", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserDto> streamUsers() {
+        return reactiveUserService.streamAll();
+    }
+
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/users/{id}")
+    public Mono<UserDto> findUserById(@PathVariable long id) {
+        return reactiveUserService.findById(id);
+    }
+
+    /**
+     * PUT a User: see UserController
+     */
+    @ResponseStatus(HttpStatus.CREATED)
+    @PutMapping("/users")
+    public Mono<UserDto> createUser(@RequestBody UserDto user,
+                                    @RequestParam(name = "verify", defaultValue = "true") boolean isTestIfExists) {
+        return reactiveUserService.save(user, isTestIfExists);
+    }
+
+    /**
+     * POST a User: see UserController
+     */
+    @ResponseStatus(HttpStatus.CREATED)
+    @PostMapping("/users")
+    public Mono<UserDto> createUser(@RequestBody UserDto user) {
+        return reactiveUserService.save(user, true);
+    }
+
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @DeleteMapping("/users/{id}")
+    public Mono<Void> deleteUser(@PathVariable long id) {
+        return reactiveUserService.deleteById(id);
+    }
+}
@@ -1,32 +1,170 @@
 package com.gvormbrock.test.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.gvormbrock.test.aspect.Profiled;
+import com.gvormbrock.test.config.CborConfig;
+import com.gvormbrock.test.config.ReplicaRoutingDataSource;
+import com.gvormbrock.test.dto.UserBatchResultDto;
+import com.gvormbrock.test.dto.UserDeleteResultDto;
 import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserSearchCriteria;
+import com.gvormbrock.test.dto.UserSearchResultDto;
+import com.gvormbrock.test.dto.UserWriteStatusDto;
 import com.gvormbrock.test.exception.*;
+import com.gvormbrock.test.service.UserETags;
 import com.gvormbrock.test.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
+// Replaced by ReactiveUserController in the reactive profile
+// The bodies are JSON or CBOR according to the Accept and Content-Type headers (see CborConfig)
 @RestController
+@Profile("!reactive")
 @RequiredArgsConstructor
+@Profiled
 public class UserController {
+    // The types of the bodies of the users, in the order of preference of the content negotiation
+    private static final List<MediaType> BODY_TYPES = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR);
 
     private final UserService userService;
+    private final UserETags userETags;
+    private final ObjectMapper objectMapper;
+    private final MappingJackson2CborHttpMessageConverter cborConverter;
+    // Only with app.replica.enabled
+    private final ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource;
 
-    @ResponseBody
-    @ResponseStatus(HttpStatus.OK)
-    @GetMapping("/users")
-    public List<UserDto> listUsers() {
-        return userService.findAll();
+    /**
+     * GET a page of users ordered by id:
+     * The request parameter after is the id of the last user of the previous page (0 for the first page).
+     * The request parameter limit is the page size (100 by default, at most 1000).
+     * The ETag header changes with any user or country change, or with the copy of the replica when the page is read from
+     * it: with If-None-Match the returned server code is 304, without any query, if nothing has changed.
+     * With the header "Accept: application/cbor" the page is written in CBOR, with another ETag (Vary: Accept).
+     */
+    @GetMapping(value = "/users", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public ResponseEntity<List<UserDto>> listUsers(@RequestParam(name = "after", defaultValue = "0") long after,
+                                                   @RequestParam(name = "limit", defaultValue = "100") int limit,
+                                                   WebRequest request) {
+        MediaType bodyType = bodyType(request.getHeader(HttpHeaders.ACCEPT));
+        ReplicaRoutingDataSource replicaRouting = replicaRoutingDataSource.getIfAvailable();
+        if (replicaRouting != null) {
+            // The replica lags behind the change counters: its page is tagged with its copy, and read from it even if it
+            // gets too late meanwhile
+            ReplicaRoutingDataSource.ReadTarget target = replicaRouting.readTarget();
+            String eTag = target.target() == ReplicaRoutingDataSource.Target.REPLICA
+                    ? userETags.ofReplicaList(target.replicaCopy(), bodyType) : userETags.ofList(bodyType);
+            if (request.checkNotModified(eTag)) {
+                return notModified();
+            }
+            return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(replicaRouting.readFrom(target, () -> userService.findAll(after, limit)));
+        }
+        // Read before the query: a change committed in between gives another tag to the next request
+        String eTag = userETags.ofList(bodyType);
+        if (request.checkNotModified(eTag)) {
+            return notModified();
+        }
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(userService.findAll(after, limit));
+    }
+
+    /**
+     * GET all the users as NDJSON (one UserDto per line), or as a CBOR sequence (one UserDto after the other) with the
+     * header "Accept: application/cbor-seq":
+     * The rows are written to the response while the database cursor is open, so the memory used does not depend
+     * on the number of users.
+     */
+    // A single mapping for both: with several ones, a request without Accept header would be mapped to the stream
+    @GetMapping(value = "/users", produces = {MediaType.APPLICATION_NDJSON_VALUE, CborConfig.APPLICATION_CBOR_SEQ_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamUsers(HttpServletRequest request) {
+        // The types of the mapping accepted by the request, NDJSON first
+        @SuppressWarnings("unchecked")
+        Set<MediaType> producible = (Set<MediaType>) request.getAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+        boolean lines = producible.contains(MediaType.APPLICATION_NDJSON);
+        MediaType contentType = lines ? MediaType.APPLICATION_NDJSON : CborConfig.APPLICATION_CBOR_SEQ;
+        ObjectMapper mapper = lines ? objectMapper : cborConverter.getObjectMapper();
+        ObjectWriter writer = mapper.writerFor(UserDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = writer.createGenerator(outputStream)) {
+                if (lines) {
+                    generator.setRootValueSeparator(null);
+                }
+                userService.streamAll(user -> {
+                    try {
+                        writer.writeValue(generator, user);
+                        if (lines) {
+                            generator.writeRaw('\n');
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(contentType).body(body);
     }
 
+    /**
+     * GET the users matching all the given filters, by pages:
+     * The request parameters name (prefix of the name), countryCode, gender, bornFrom and bornTo (ISO dates, included)
+     * are the filters. The request parameter sort is id (default), name or birthday, desc reverses the order and limit
+     * is the page size (100 by default, at most 1000).
+     * The result gives the users and nextCursor, to give as the request parameter cursor to get the next page (absent on
+     * the last page). The first page also gives estimatedCount, the number of matching users up to 10000 (countCapped
+     * is true beyond).
+     * The returned server code is 500 with the error 102 if the sort or the cursor is invalid.
+     */
     @ResponseBody
     @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/users/search")
+    public UserSearchResultDto searchUsers(UserSearchCriteria criteria) {
+        return userService.search(criteria);
+    }
+
+    /**
+     * GET a user by its id:
+     * The ETag header gives its version: with If-None-Match the returned server code is 304, without body, if it has
+     * not changed. The JSON and CBOR bodies have different ETags (Vary: Accept).
+     */
     @GetMapping("/users/{id}")
-    public UserDto findUserById(@PathVariable long id) {
-        return userService.findById(id);
+    public ResponseEntity<UserDto> findUserById(@PathVariable long id, WebRequest request) {
+        UserDto user = userService.findById(id);
+        String eTag = userETags.ofUser(user, bodyType(request.getHeader(HttpHeaders.ACCEPT)));
+        if (request.checkNotModified(eTag)) {
+            return notModified();
+        }
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(user);
+    }
+
+    /**
+     * The response of a request whose If-None-Match matches, the ETag being set by checkNotModified
+     */
+    private static <T> ResponseEntity<T> notModified() {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).varyBy(HttpHeaders.ACCEPT).build();
     }
 
     /**
@@ -36,15 +174,18 @@ public class UserController {
      * The country can be given by its name like 'France' or the countryCode like 'fr'.
      * Moreover, the new user must be at least 18 years old to be created.
      * If a constraints is not respected, an exception is thrown and the returned server code is 500.
-     * If everything is Ok the returned server code is 200
+     * With an If-Match header (the ETag of GET /users/{id}), the user is only updated if it has not changed since:
+     * else the returned server code is 412.
+     * If everything is Ok the returned server code is 201, with the new ETag
      */
-    @ResponseBody
-    @ResponseStatus(HttpStatus.CREATED)
     @PutMapping("/users")
-    public UserDto createUser(@RequestBody UserDto user,
-                              @RequestParam(name="verify", defaultValue = "true") boolean isTestIfExists)
+    public ResponseEntity<UserDto> createUser(@RequestBody UserDto user,
+                                              @RequestParam(name="verify", defaultValue = "true") boolean isTestIfExists,
+                                              @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                              @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
             throws ErrorServerException {
-        return userService.save(user, isTestIfExists);
+        UserDto saved = userService.save(user, isTestIfExists, ifMatch);
+        return ResponseEntity.status(HttpStatus.CREATED).eTag(userETags.ofUser(saved, bodyType(accept))).body(saved);
     }
 
     /**
@@ -54,13 +195,130 @@ public class UserController {
      * The country can be given by its name like 'France' or the countryCode like 'fr'.
      * Moreover, the new user must be at least 18 years old to be created.
      * If a constraints is not respected, the returned server code is 500 with th description as ErrorDetails.
-     * If everything is Ok the returned server code is 200
+     * If everything is Ok the returned server code is 201.
+     * In the write-behind mode (app.write-behind.enabled=true) the returned server code is 202 with the user and its
+     * id: it is created a few milliseconds later, the Location header gives the URL of its status. If too many users
+     * are waiting to be created, the returned server code is 503 with a Retry-After header.
      */
-    @ResponseBody
-    @ResponseStatus(HttpStatus.CREATED)
     @PostMapping("/users")
-    public UserDto createUser(@RequestBody UserDto user) {
-        return userService.save(user, true);
+    public ResponseEntity<UserDto> createUser(@RequestBody UserDto user) {
+        if (userService.isWriteBehind()) {
+            UserDto queued = userService.saveWriteBehind(user);
+            return ResponseEntity.accepted().location(URI.create("/users/" + queued.getId() + "/status")).body(queued);
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body(userService.save(user, true));
+    }
+
+    /**
+     * GET the state of a user created in the write-behind mode: PENDING, CREATED or FAILED with the error.
+     * The returned server code is 404 if the user is unknown.
+     */
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/users/{id}/status")
+    public UserWriteStatusDto findUserWriteStatus(@PathVariable long id) {
+        return userService.findWriteStatus(id);
+    }
+
+    /**
+     * POST a list of users (JSON or CBOR array) to create them at once:
+     * Each user is checked as in the POST of a single user. The valid ones are created, the others are rejected.
+     * The returned server code is 200 with one UserBatchResultDto per user, in the same order, giving the created user
+     * or the error.
+     */
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @PostMapping(value = "/users/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public List<UserBatchResultDto> createUsers(@RequestBody List<UserDto> users) {
+        List<UserBatchResultDto> results = new ArrayList<>(users.size());
+        for (int from = 0; from < users.size(); from += UserService.BATCH_CHUNK_SIZE) {
+            int to = Math.min(from + UserService.BATCH_CHUNK_SIZE, users.size());
+            results.addAll(userService.saveBatch(users.subList(from, to), from));
+        }
+        return results;
+    }
+
+    /**
+     * POST users as NDJSON (one UserDto per line) to create them at once:
+     * Same as the JSON array, but the users are read and created by chunks while the request body is received.
+     */
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @PostMapping(value = "/users/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public List<UserBatchResultDto> createUsersFromNdjson(InputStream body) throws IOException {
+        return createUsers(objectMapper, body);
+    }
+
+    /**
+     * POST users as a CBOR sequence (one UserDto after the other) to create them at once, read as the NDJSON
+     */
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @PostMapping(value = "/users/batch", consumes = CborConfig.APPLICATION_CBOR_SEQ_VALUE)
+    public List<UserBatchResultDto> createUsersFromCbor(InputStream body) throws IOException {
+        return createUsers(cborConverter.getObjectMapper(), body);
+    }
+
+    private List<UserBatchResultDto> createUsers(ObjectMapper mapper, InputStream body) throws IOException {
+        List<UserBatchResultDto> results = new ArrayList<>();
+        List<UserDto> chunk = new ArrayList<>(UserService.BATCH_CHUNK_SIZE);
+        try (MappingIterator<UserDto> users = mapper.readerFor(UserDto.class).readValues(body)) {
+            while (users.hasNextValue()) {
+                chunk.add(users.nextValue());
+                if (chunk.size() == UserService.BATCH_CHUNK_SIZE) {
+                    results.addAll(userService.saveBatch(chunk, results.size()));
+                    chunk = new ArrayList<>(UserService.BATCH_CHUNK_SIZE);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(userService.saveBatch(chunk, results.size()));
+        }
+        return results;
+    }
+
+    /**
+     * DELETE users at once, with set based statements:
+     * The request parameter id, repeated, gives the ids of the users. The request parameters name (prefix of the name),
+     * countryCode, gender, bornFrom and bornTo (ISO dates, included) are filters, as for GET /users/search. The users
+     * deleted are the ones of the ids (all if no id is given) matching all the filters.
+     * The returned server code is 200 with the number of users deleted, or 500 with the error 102 if neither ids nor
+     * filters are given.
+     */
+    @ResponseBody
+    @ResponseStatus(HttpStatus.OK)
+    @DeleteMapping("/users")
+    public UserDeleteResultDto deleteUsers(@RequestParam(name = "id", required = false) List<Long> ids,
+                                           UserSearchCriteria criteria) {
+        return UserDeleteResultDto.builder().deleted(userService.deleteAll(ids, criteria)).build();
+    }
+
+    /**
+     * @param accept the Accept header of the request, null if absent
+     * @return the type of the body chosen by the content negotiation: the body type accepted with the highest quality,
+     * JSON first, JSON if none
+     */
+    static MediaType bodyType(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MediaType bodyType = MediaType.APPLICATION_JSON;
+        double quality = 0;
+        for (MediaType accepted : acceptedTypes) {
+            for (MediaType candidate : BODY_TYPES) {
+                if (accepted.includes(candidate) && accepted.getQualityValue() > quality) {
+                    bodyType = candidate;
+                    quality = accepted.getQualityValue();
+                }
+            }
+        }
+        return bodyType;
     }
 
     /**
@@ -72,8 +330,9 @@ public class UserController {
      */
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @DeleteMapping("/users/{id}")
-    void deleteUser(@PathVariable Long id) {
-        userService.deleteById(id);
+    void deleteUser(@PathVariable Long id,
+                    @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        userService.deleteById(id, ifMatch);
     }
 
 }
@@ -0,0 +1,33 @@
+package com.gvormbrock.test.dto;
+
+import com.gvormbrock.test.exception.FieldViolation;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * The result of the import of one user by POST /users/batch
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserBatchResultDto {
+    public enum Status { CREATED, REJECTED }
+
+    // Index of the user in the imported list or stream
+    private int index;
+
+    private Status status;
+
+    // The created user with its id, only if the status is CREATED
+    private UserDto user;
+
+    // Only if the status is REJECTED
+    private Integer errorCode;
+
+    private String errorMessage;
+
+    private List<FieldViolation> violations;
+}
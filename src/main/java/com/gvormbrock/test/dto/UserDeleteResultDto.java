@@ -0,0 +1,16 @@
+package com.gvormbrock.test.dto;
+
+import lombok.*;
+
+/**
+ * The result of the bulk DELETE /users
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserDeleteResultDto {
+    // The number of users deleted
+    private int deleted;
+}
@@ -1,10 +1,11 @@
 package com.gvormbrock.test.dto;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.*;
 import lombok.*;
 
-import java.sql.Date;
+import java.time.LocalDate;
 
 
 @Getter
@@ -27,7 +28,7 @@ public class UserDto {
     private String name;
 
     @NotNull
-    Date birthday;
+    LocalDate birthday;
 
     @Pattern(regexp = "^[A-Za-zÀ-ÿ\\s\\-'().]*$", message = "Country name can be only be alphanumerical characters")
     @Size(min = 3, max = 100, message = "Country name must be minimum 3 characters and maximum 100 characters long")
@@ -40,4 +41,8 @@ public class UserDto {
     @Size(min = 2, max = 50, message = "Phone number must be minimum 2 characters and maximum 50 characters long")
     @Pattern(regexp = "^\\+?\\d{1,3}[\\s-]?\\(?\\d{1,3}\\)?[\\s-]?\\d{1,4}[\\s-]?\\d{1,4}[\\s-]?\\d{1,9}$", message = "Can be + followed by a number or simply a number")
     String phoneNumber;
+
+    // The version of the user, sent in the ETag header rather than in the body (see UserETags)
+    @JsonIgnore
+    Long version;
 }
\ No newline at end of file
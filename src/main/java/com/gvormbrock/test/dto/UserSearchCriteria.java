@@ -0,0 +1,43 @@
+package com.gvormbrock.test.dto;
+
+import lombok.*;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+/**
+ * The request parameters of GET /users/search, all optional
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserSearchCriteria {
+    // Prefix of the name, case sensitive
+    private String name;
+
+    private String countryCode;
+
+    private String gender;
+
+    // Birthday range, both bounds included
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate bornFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate bornTo;
+
+    // id (default), name or birthday, then id for the users of same name or birthday
+    @Builder.Default
+    private String sort = "id";
+
+    @Builder.Default
+    private boolean desc = false;
+
+    @Builder.Default
+    private int limit = 100;
+
+    // nextCursor of the previous page, null for the first page
+    private String cursor;
+}
@@ -0,0 +1,28 @@
+package com.gvormbrock.test.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * A page of GET /users/search
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserSearchResultDto {
+    private List<UserDto> users;
+
+    // The cursor parameter of the next page, null on the last page
+    private String nextCursor;
+
+    // Only on the first page: the number of matching users, counted up to UserService.SEARCH_COUNT_CAP
+    private Long estimatedCount;
+
+    // True if there are more than estimatedCount matching users
+    private Boolean countCapped;
+}
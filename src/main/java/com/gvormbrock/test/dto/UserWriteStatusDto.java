@@ -0,0 +1,24 @@
+package com.gvormbrock.test.dto;
+
+import lombok.*;
+
+/**
+ * The state of a user accepted by POST /users in the write-behind mode, given by GET /users/{id}/status
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserWriteStatusDto {
+    public enum Status { PENDING, CREATED, FAILED }
+
+    private long id;
+
+    private Status status;
+
+    // Only if the status is FAILED
+    private Integer errorCode;
+
+    private String errorMessage;
+}
@@ -1,5 +1,6 @@
 package com.gvormbrock.test.exception;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -14,6 +15,8 @@ import java.util.Map;
 public class ErrorDetails {
     private int errorCode;
     private String errorMessage;
+    // The stack trace, only in dev mode (app.errors.include-stacktrace)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String devErrorMessage;
     private Map<String, Object> additionalData = new HashMap<>();
 }
@@ -2,12 +2,16 @@ package com.gvormbrock.test.exception;
 
 import lombok.Getter;
 
+/**
+ * A business error, rendered by GlobalExceptionHandler with its errorCode. It is created without a stack trace: the
+ * error is fully described by its code and message, and filling the trace is the main cost of throwing it.
+ */
 @Getter
 public class ErrorServerException extends RuntimeException {
     protected final int errorCode;
 
     public ErrorServerException(int errorCode, String errorMessage) {
-        super(errorMessage);
+        super(errorMessage, null, false, false);
         this.errorCode = errorCode;
     }
 }
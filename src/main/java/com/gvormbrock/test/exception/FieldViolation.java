@@ -0,0 +1,7 @@
+package com.gvormbrock.test.exception;
+
+/**
+ * A constraint violation on a field of a request body, as listed in ErrorDetails.additionalData
+ */
+public record FieldViolation(String field, String message) {
+}
@@ -0,0 +1,10 @@
+package com.gvormbrock.test.exception;
+
+/**
+ * The If-Match header of a request does not match the current version of the resource
+ */
+public class PreconditionFailedException extends ErrorServerException {
+    public PreconditionFailedException(int errorCode, String errorMessage) {
+        super(errorCode, errorMessage);
+    }
+}
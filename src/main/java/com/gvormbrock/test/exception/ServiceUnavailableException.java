@@ -0,0 +1,16 @@
+package com.gvormbrock.test.exception;
+
+import lombok.Getter;
+
+/**
+ * The request can not be handled now but can be sent again later, after retryAfterSeconds
+ */
+@Getter
+public class ServiceUnavailableException extends ErrorServerException {
+    private final long retryAfterSeconds;
+
+    public ServiceUnavailableException(int errorCode, String errorMessage, long retryAfterSeconds) {
+        super(errorCode, errorMessage);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,10 @@
+package com.gvormbrock.test.exception;
+
+/**
+ * The request is shed by the admission control before being handled: it can be sent again after retryAfterSeconds
+ */
+public class TooManyRequestsException extends ServiceUnavailableException {
+    public TooManyRequestsException(int errorCode, String errorMessage, long retryAfterSeconds) {
+        super(errorCode, errorMessage, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,15 @@
+package com.gvormbrock.test.exception;
+
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+public class ValidationErrorException extends ErrorServerException {
+    private final transient List<FieldViolation> violations;
+
+    public ValidationErrorException(int errorCode, String errorMessage, List<FieldViolation> violations) {
+        super(errorCode, errorMessage);
+        this.violations = violations;
+    }
+}
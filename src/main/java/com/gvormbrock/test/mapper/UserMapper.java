@@ -3,33 +3,31 @@ package com.gvormbrock.test.mapper;
 import com.gvormbrock.test.dto.UserDto;
 import com.gvormbrock.test.model.Country;
 import com.gvormbrock.test.model.User;
-import jakarta.validation.constraints.NotNull;
-import org.springframework.stereotype.Component;
+import org.mapstruct.Builder;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.MappingConstants;
+import org.mapstruct.ReportingPolicy;
 
-@Component
-public class UserMapper {
-    public User mapToUser(UserDto userDto, Country country) {
-        return User.builder()
-                .id(userDto.getId())
-                .gender(userDto.getGender())
-                .name(userDto.getName())
-                .birthday(userDto.getBirthday())
-                .countryOfResidence(country)
-                .phoneNumber(userDto.getPhoneNumber())
-                .build();
-    }
+import java.util.List;
 
-    public UserDto mapToUserDto(User user) {
-        @NotNull
-        Country country = user.getCountryOfResidence();
-        return UserDto.builder()
-                .id(user.getId())
-                .gender(user.getGender())
-                .name(user.getName())
-                .birthday(user.getBirthday())
-                .countryName(country.getName())
-                .countryCode(country.getCountryCode())
-                .phoneNumber(user.getPhoneNumber())
-                .build();
-    }
+/**
+ * The implementation UserMapperImpl is generated by MapStruct at compile time: plain constructor and setter calls,
+ * without the Lombok builders. It is a bean which is not @Profiled, so it is not proxied.
+ * A field added to User or UserDto and not mapped here fails the compilation.
+ */
+@Mapper(componentModel = MappingConstants.ComponentModel.SPRING,
+        builder = @Builder(disableBuilder = true),
+        unmappedTargetPolicy = ReportingPolicy.ERROR)
+public interface UserMapper {
+    @Mapping(target = "id", source = "userDto.id")
+    @Mapping(target = "name", source = "userDto.name")
+    @Mapping(target = "countryOfResidence", source = "country")
+    User mapToUser(UserDto userDto, Country country);
+
+    @Mapping(target = "countryName", source = "countryOfResidence.name")
+    @Mapping(target = "countryCode", source = "countryOfResidence.countryCode")
+    UserDto mapToUserDto(User user);
+
+    List<UserDto> mapToUserDtos(List<User> users);
 }
@@ -5,12 +5,28 @@ import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
-import java.sql.Date;
+import java.time.LocalDate;
 
 
 @Entity
-@Table(name = "USER_TABLE") // You must rename this class as user is a key word in sql
+// You must rename this class as user is a key word in sql
+// The unique constraint is backed by a composite index on (name, birthday) used by the duplicate checks and the name
+// prefix of the search. The other indexes serve the filters of the search (see UserSpecifications).
+@Table(name = "USER_TABLE",
+        uniqueConstraints = @UniqueConstraint(name = "UK_USER_NAME_BIRTHDAY", columnNames = {"name", "birthday"}),
+        indexes = {
+                @Index(name = "IDX_USER_BIRTHDAY", columnList = "birthday"),
+                @Index(name = "IDX_USER_COUNTRY_GENDER", columnList = "country_of_residence_id, gender")
+        })
+// Kept in the second level cache (region com.gvormbrock.test.model.User, see EntityCacheConfig): the cached entry is
+// updated or removed by the writes done through the entity manager
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Getter
 @Setter
 @AllArgsConstructor
@@ -19,8 +35,13 @@ import java.sql.Date;
 public class User {
 
     // An autogenerated id (unique for each user in the db)
+    // The ids are taken from the sequence by blocks of 50 (increment_size), so that the inserts can be batched. With
+    // the sharding, the id is given before the insert (see UserIdGenerator).
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(generator = "user_seq")
+    @GenericGenerator(name = "user_seq", strategy = "com.gvormbrock.test.repository.UserIdGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "user_table_seq"),
+            @Parameter(name = "increment_size", value = "50")})
     private Long id;
 
     @Size(min = 4, max = 6, message = "Gender must be minimum 4 characters and maximum 5 characters long")
@@ -31,7 +52,7 @@ public class User {
     private String name;
 
     @NotNull
-    Date birthday;
+    LocalDate birthday;
 
     @NotNull
     @ManyToOne(fetch = FetchType.EAGER)
@@ -39,4 +60,8 @@ public class User {
 
     @Size(min = 2, max = 50, message = "Phone number must be minimum 2 characters and maximum 50 characters long")
     String phoneNumber;
+
+    // Incremented by each update, checked by the updates of a detached user (optimistic locking) and given as the ETag
+    @Version
+    private Long version;
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.dto.UserDto;
+import io.r2dbc.spi.Readable;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+
+/**
+ * The USER_TABLE access of the reactive profile, with R2DBC on the schema created by JPA. The users are read with
+ * their country as UserDto. The writes maintain the version column of JPA (@Version of User): the ETags of the users
+ * are built from it.
+ */
+@Repository
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveUserRepository {
+    private static final String SELECT_USERS = "select u.id, u.gender, u.name, u.birthday, u.phone_number, u.version, "
+            + "c.name as country_name, c.country_code from user_table u join country c on c.id = u.country_of_residence_id";
+
+    private final DatabaseClient databaseClient;
+    private final UserIdAllocator userIdAllocator;
+
+    /**
+     * @return at most limit users of id greater than after, ordered by id
+     */
+    public Flux<UserDto> findPageAfter(long after, int limit) {
+        return databaseClient.sql(SELECT_USERS + " where u.id > :after order by u.id limit :limit")
+                .bind("after", after)
+                .bind("limit", limit)
+                .map(ReactiveUserRepository::mapToUserDto)
+                .all();
+    }
+
+    public Mono<UserDto> findById(long id) {
+        return databaseClient.sql(SELECT_USERS + " where u.id = :id")
+                .bind("id", id)
+                .map(ReactiveUserRepository::mapToUserDto)
+                .one();
+    }
+
+    public Mono<Boolean> existsByNameAndBirthday(String name, LocalDate birthday) {
+        return databaseClient.sql("select 1 from user_table where name = :name and birthday = :birthday")
+                .bind("name", name)
+                .bind("birthday", birthday)
+                .map(row -> Boolean.TRUE)
+                .first()
+                .hasElement();
+    }
+
+    /**
+     * Insert the user with a new id
+     *
+     * @return the id of the user
+     */
+    public Mono<Long> insert(UserDto user, long countryId) {
+        return userIdAllocator.nextId().flatMap(id -> bindUser(databaseClient.sql("insert into user_table"
+                        + "(id, gender, name, birthday, phone_number, country_of_residence_id, version) "
+                        + "values (:id, :gender, :name, :birthday, :phoneNumber, :countryId, 0)"), id, user, countryId)
+                .fetch()
+                .rowsUpdated()
+                .thenReturn(id));
+    }
+
+    /**
+     * @return the number of updated users, 0 if the id of the user does not exist
+     */
+    public Mono<Long> update(UserDto user, long countryId) {
+        return bindUser(databaseClient.sql("update user_table set gender = :gender, name = :name, birthday = :birthday, "
+                + "phone_number = :phoneNumber, country_of_residence_id = :countryId, version = version + 1 where id = :id"),
+                user.getId(), user, countryId)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * @return the number of deleted users, 0 if the id does not exist
+     */
+    public Mono<Long> deleteById(long id) {
+        return databaseClient.sql("delete from user_table where id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindUser(DatabaseClient.GenericExecuteSpec spec, long id, UserDto user,
+                                                              long countryId) {
+        spec = spec.bind("id", id)
+                .bind("name", user.getName())
+                .bind("birthday", user.getBirthday())
+                .bind("countryId", countryId);
+        spec = user.getGender() == null ? spec.bindNull("gender", String.class) : spec.bind("gender", user.getGender());
+        return user.getPhoneNumber() == null ? spec.bindNull("phoneNumber", String.class)
+                : spec.bind("phoneNumber", user.getPhoneNumber());
+    }
+
+    private static UserDto mapToUserDto(Readable row) {
+        return UserDto.builder()
+                .id(row.get("id", Long.class))
+                .gender(row.get("gender", String.class))
+                .name(row.get("name", String.class))
+                .birthday(row.get("birthday", LocalDate.class))
+                .countryName(row.get("country_name", String.class))
+                .countryCode(row.get("country_code", String.class))
+                .phoneNumber(row.get("phone_number", String.class))
+                .version(row.get("version", Long.class))
+                .build();
+    }
+}
@@ -0,0 +1,51 @@
+package com.gvormbrock.test.repository;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Globally unique ids without a central sequence (Snowflake): 41 bits of milliseconds since EPOCH (until 2093), then
+ * 10 bits of node id and 12 bits of sequence inside the millisecond. Each instance of the application sharing the shards
+ * must have its own node id (app.sharding.node-id). The ids of a node are increasing: beyond 4096 ids in a millisecond
+ * they are taken ahead of the clock, which is caught up later, as it is when the clock goes back.
+ * <p>
+ * The ids are above 2^53: the JavaScript clients must not read them as numbers.
+ */
+public class SnowflakeIdGenerator {
+    public static final Instant EPOCH = Instant.parse("2024-01-01T00:00:00Z");
+    public static final int MAX_NODE_ID = (1 << 10) - 1;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int TIMESTAMP_SHIFT = 10 + SEQUENCE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+    private final Clock clock;
+    // The millisecond and the sequence of the last id: (millis since EPOCH << SEQUENCE_BITS) | sequence
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int nodeId, Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    public long nextId() {
+        long now = (clock.millis() - EPOCH.toEpochMilli()) << SEQUENCE_BITS;
+        long next = last.updateAndGet(previous -> Math.max(previous + 1, now));
+        return (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT | nodeId << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the time at which the id was generated, EPOCH for the ids of the sequence user_table_seq
+     */
+    public static Instant timestampOf(long id) {
+        return EPOCH.plusMillis(id >>> TIMESTAMP_SHIFT);
+    }
+
+    public static int nodeIdOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+}
@@ -0,0 +1,49 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * The inserts of the write-behind mode (see UserWriteBehind), with JDBC batches: the users are not entities of a
+ * persistence context. The ids are taken from the JPA sequence user_table_seq by blocks (see UserIdBlock), so they never
+ * collide with the ids given to the entities.
+ */
+@Repository
+@ConditionalOnProperty(name = "app.write-behind.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class UserBatchWriter {
+    private static final String INSERT_USER = "insert into user_table"
+            + "(id, gender, name, birthday, phone_number, country_of_residence_id, version) values (?, ?, ?, ?, ?, ?, 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final UserIdBlock block = new UserIdBlock();
+
+    /**
+     * @return a new user id, the sequence is only read once per UserIdBlock.ALLOCATION_SIZE ids
+     */
+    public long reserveId() {
+        return block.next(() -> jdbcTemplate.queryForObject("select next value for user_table_seq", Long.class));
+    }
+
+    /**
+     * Insert the users, which ids are set, in a single JDBC batch
+     */
+    public void insertAll(List<User> users) {
+        jdbcTemplate.batchUpdate(INSERT_USER, users, users.size(), (statement, user) -> {
+            statement.setLong(1, user.getId());
+            statement.setObject(2, user.getGender(), Types.VARCHAR);
+            statement.setString(3, user.getName());
+            statement.setDate(4, Date.valueOf(user.getBirthday()));
+            statement.setObject(5, user.getPhoneNumber(), Types.VARCHAR);
+            statement.setLong(6, user.getCountryOfResidence().getId());
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package com.gvormbrock.test.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * The user ids of the reactive profile, taken from the JPA sequence user_table_seq by blocks (see UserIdBlock), so the
+ * ids of both stacks never collide. Concurrent requests on an exhausted block may each fetch a new block: the ids left
+ * in the replaced block are lost, never given twice.
+ */
+@Component
+@Profile("reactive")
+@RequiredArgsConstructor
+public class UserIdAllocator {
+    private final DatabaseClient databaseClient;
+    private final UserIdBlock block = new UserIdBlock();
+
+    public Mono<Long> nextId() {
+        return Mono.defer(() -> {
+            Long id = block.take();
+            if (id != null) {
+                return Mono.just(id);
+            }
+            return databaseClient.sql("select next value for user_table_seq")
+                    .map(row -> row.get(0, Long.class))
+                    .one()
+                    .map(block::takeFromNewBlock);
+        });
+    }
+}
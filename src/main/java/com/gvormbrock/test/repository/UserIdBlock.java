@@ -0,0 +1,61 @@
+package com.gvormbrock.test.repository;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The block of user ids taken from the JPA sequence user_table_seq by the inserts done without Hibernate (reactive
+ * profile, write-behind mode), as the pooled optimizer of Hibernate does: a sequence value v gives the ids
+ * v - ALLOCATION_SIZE + 1 to v, so they never collide with the ids given to the entities.
+ * A lock and not a monitor: the sequence may be read while it is held, on a virtual thread.
+ */
+final class UserIdBlock {
+    // The increment_size of the sequence generator of User
+    static final int ALLOCATION_SIZE = 50;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long next = 1;
+    private long last = 0;
+
+    /**
+     * @return the next id of the block, null if it is exhausted
+     */
+    Long take() {
+        lock.lock();
+        try {
+            return next <= last ? next++ : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the block by the one of the sequence value: the ids left in the previous block are lost, never given twice
+     *
+     * @return its first id
+     */
+    long takeFromNewBlock(long sequenceValue) {
+        lock.lock();
+        try {
+            next = Math.max(1, sequenceValue - ALLOCATION_SIZE + 1);
+            last = sequenceValue;
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param nextSequenceValue reads the sequence when the block is exhausted, under the lock: a single caller reads it
+     * @return the next id
+     */
+    long next(LongSupplier nextSequenceValue) {
+        lock.lock();
+        try {
+            Long id = take();
+            return id != null ? id : takeFromNewBlock(nextSequenceValue.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
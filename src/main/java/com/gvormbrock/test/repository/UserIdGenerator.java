@@ -0,0 +1,19 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.model.User;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+/**
+ * The ids of the new users: taken from the sequence user_table_seq, unless the id has been given before the persist.
+ * The sharding gives it (see UserShardingAspect): the shard of a user is the one of its id, known before the insert.
+ */
+public class UserIdGenerator extends SequenceStyleGenerator {
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        if (object instanceof User user && user.getId() != null) {
+            return user.getId();
+        }
+        return super.generate(session, object);
+    }
+}
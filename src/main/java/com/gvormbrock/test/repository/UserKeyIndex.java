@@ -0,0 +1,100 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.dto.UserDto;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * The uniqueness of (name, birthday) across the shards: the table user_key (see db/sharding.sql) of the shard of the hash
+ * of (name, birthday) gives the id of the user which has claimed it. A user claims its key before its insert or its
+ * rename, and releases it after its delete or rename. The statements are committed at once, out of the transactions of
+ * the users: a claim left by a failure, whose user does not exist, is taken over once its id is older than
+ * claimTimeout (before, the insert of its user can still be running).
+ */
+public class UserKeyIndex {
+    private final UserShards shards;
+    private final Clock clock;
+    private final Duration claimTimeout;
+
+    public UserKeyIndex(UserShards shards, Clock clock, Duration claimTimeout) {
+        this.shards = shards;
+        this.clock = clock;
+        this.claimTimeout = claimTimeout;
+    }
+
+    /**
+     * Claim the key for the user of the given id
+     *
+     * @throws DuplicateKeyException if another user has the key
+     */
+    public void claim(String name, LocalDate birthday, long id) {
+        List<Long> owners = owners(name, birthday);
+        if (owners.isEmpty()) {
+            // Rejected by the primary key if claimed in between
+            shards.jdbcTemplate(shards.shardOf(name, birthday))
+                    .update("insert into user_key (name, birthday, user_id) values (?, ?, ?)", name, birthday, id);
+            return;
+        }
+        long owner = owners.get(0);
+        if (owner == id) {
+            return;
+        }
+        boolean abandoned = !exists(owner)
+                && SnowflakeIdGenerator.timestampOf(owner).isBefore(clock.instant().minus(claimTimeout));
+        if (!abandoned || shards.jdbcTemplate(shards.shardOf(name, birthday)).update(
+                "update user_key set user_id = ? where name = ? and birthday = ? and user_id = ?",
+                id, name, birthday, owner) == 0) {
+            throw new DuplicateKeyException("The key (" + name + ", " + birthday + ") is claimed by the user " + owner);
+        }
+    }
+
+    /**
+     * Release the key if it is still claimed by the user of the given id
+     */
+    public void release(String name, LocalDate birthday, long id) {
+        shards.jdbcTemplate(shards.shardOf(name, birthday))
+                .update("delete from user_key where name = ? and birthday = ? and user_id = ?", name, birthday, id);
+    }
+
+    /**
+     * Release the keys still claimed by the given users, with a batch statement by shard of the keys
+     */
+    public void releaseAll(List<UserDto> users) {
+        Map<Integer, List<Object[]>> keysByShard = new TreeMap<>();
+        for (UserDto user : users) {
+            keysByShard.computeIfAbsent(shards.shardOf(user.getName(), user.getBirthday()), shard -> new ArrayList<>())
+                    .add(new Object[]{user.getName(), user.getBirthday(), user.getId()});
+        }
+        keysByShard.forEach((shard, keys) -> shards.jdbcTemplate(shard)
+                .batchUpdate("delete from user_key where name = ? and birthday = ? and user_id = ?", keys));
+    }
+
+    /**
+     * @return the id of the user of the given name and birthday, if it exists
+     */
+    public Optional<Long> findOwner(String name, LocalDate birthday) {
+        return owners(name, birthday).stream()
+                .filter(owner -> shards.jdbcTemplate(shards.shardOf(owner)).queryForObject(
+                        "select count(*) from user_table where id = ? and name = ? and birthday = ?",
+                        Integer.class, owner, name, birthday) > 0)
+                .findFirst();
+    }
+
+    private List<Long> owners(String name, LocalDate birthday) {
+        return shards.jdbcTemplate(shards.shardOf(name, birthday)).queryForList(
+                "select user_id from user_key where name = ? and birthday = ?", Long.class, name, birthday);
+    }
+
+    private boolean exists(long id) {
+        return shards.jdbcTemplate(shards.shardOf(id)).queryForObject(
+                "select count(*) from user_table where id = ?", Integer.class, id) > 0;
+    }
+}
@@ -0,0 +1,12 @@
+package com.gvormbrock.test.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Projection of a user on the attributes which identify it, used to search duplicates without loading entities
+ */
+public interface UserNameAndBirthday {
+    String getName();
+
+    LocalDate getBirthday();
+}
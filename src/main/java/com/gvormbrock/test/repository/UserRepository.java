@@ -1,15 +1,89 @@
 package com.gvormbrock.test.repository;
 
+import com.gvormbrock.test.dto.UserDto;
 import com.gvormbrock.test.model.User;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.stereotype.Repository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
-@Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+/**
+ * Only the methods of JpaRepository used by the application are exposed (implemented by SimpleJpaRepository): in the
+ * sharded profile each method must be routed to the shards by UserShardingAspect, the others are not callable.
+ */
+public interface UserRepository extends Repository<User, Long>, UserSearchRepository {
+    // The read path: UserDto built by the query from a single join, without any User entity nor mapping
+    String SELECT_USER_DTO = "select new com.gvormbrock.test.dto.UserDto(u.id, u.gender, u.name, u.birthday, "
+            + "c.name, c.countryCode, u.phoneNumber, u.version) from User u join u.countryOfResidence c";
+
+    <S extends User> S save(S user);
+
+    <S extends User> S saveAndFlush(S user);
+
+    <S extends User> List<S> saveAll(Iterable<S> users);
+
+    Optional<User> findById(Long id);
+
+    boolean existsById(Long id);
+
+    void deleteById(Long id);
+
+    void flush();
 
     // @Query("select u from UserTable u where u.name = ?1 and u.birthday = ?2")
-    List<User> findByNameAndBirthday(String name, Date birthday);
+    List<User> findByNameAndBirthday(String name, LocalDate birthday);
+
+    boolean existsByNameAndBirthday(String name, LocalDate birthday);
+
+    List<UserNameAndBirthday> findByNameIn(Collection<String> names);
+
+    /**
+     * Keyset (seek) pagination: returns the users whose id is strictly greater than after, ordered by id.
+     * Only the first page of the pageable is used, no count query is issued.
+     */
+    @Query(SELECT_USER_DTO + " where u.id > :after order by u.id")
+    List<UserDto> findPageAfter(@Param("after") long after, Pageable pageable);
+
+    @Query(SELECT_USER_DTO + " where u.id = :id")
+    Optional<UserDto> findDtoById(@Param("id") long id);
+
+    /**
+     * Delete the user with a single statement, without loading it. The persistence context is cleared: a find must not
+     * return the deleted user
+     *
+     * @return 1 if deleted, 0 if the user does not exist
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("delete from User u where u.id = :id")
+    int deleteUserById(@Param("id") long id);
+
+    /**
+     * Delete the user only if it has not been updated since the version was read
+     *
+     * @return 1 if deleted, else 0
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("delete from User u where u.id = :id and u.version = :version")
+    int deleteByIdAndVersion(@Param("id") long id, @Param("version") long version);
+
+    /**
+     * Stream all the users ordered by id while the JDBC cursor stays open.
+     * Must be consumed inside a transaction and closed by the caller.
+     */
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(SELECT_USER_DTO + " order by u.id")
+    Stream<UserDto> streamAll();
 }
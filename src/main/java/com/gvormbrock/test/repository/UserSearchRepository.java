@@ -0,0 +1,35 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.model.User;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * The search of GET /users/search: the filters are Specifications (see UserSpecifications) applied to a criteria query
+ * which selects UserDto projections, as the other read paths of UserRepository. The same filters select the users of
+ * the bulk DELETE /users.
+ */
+public interface UserSearchRepository {
+    /**
+     * @return at most limit users matching the specification, in the order of sort
+     */
+    List<UserDto> search(Specification<User> specification, Sort sort, int limit);
+
+    /**
+     * Count the users matching the specification, reading at most cap + 1 index or table entries
+     *
+     * @return the number of users, cap + 1 if there are more than cap users
+     */
+    long countUpTo(Specification<User> specification, int cap);
+
+    /**
+     * Delete the users matching the specification with a single statement, without loading them. The persistence
+     * context is cleared: a find must not return the deleted users
+     *
+     * @return the number of users deleted
+     */
+    int deleteMatching(Specification<User> specification);
+}
@@ -0,0 +1,88 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+class UserSearchRepositoryImpl implements UserSearchRepository {
+    private final EntityManager entityManager;
+
+    @Override
+    public List<UserDto> search(Specification<User> specification, Sort sort, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<UserDto> query = builder.createQuery(UserDto.class);
+        Root<User> user = query.from(User.class);
+        Join<User, Country> country = user.join("countryOfResidence");
+        // Same projection as UserRepository.SELECT_USER_DTO
+        query.select(builder.construct(UserDto.class, user.get("id"), user.get("gender"), user.get("name"),
+                user.get("birthday"), country.get("name"), country.get("countryCode"), user.get("phoneNumber"),
+                user.get("version")));
+        where(query, user, builder, specification);
+        query.orderBy(QueryUtils.toOrders(sort, user, builder));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * The JPA criteria of the specifications have no subquery with a limit: the count is two statements returning a
+     * single row each, the first one stopping at the user cap + 1, the second one only run under the cap
+     */
+    @Override
+    public long countUpTo(Specification<User> specification, int cap) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> beyondCap = builder.createQuery(Long.class);
+        Root<User> user = beyondCap.from(User.class);
+        // Unordered: the first matching entries found are skipped, without any sort
+        beyondCap.select(user.get("id"));
+        where(beyondCap, user, builder, specification);
+        if (!entityManager.createQuery(beyondCap).setFirstResult(cap).setMaxResults(1).getResultList().isEmpty()) {
+            return cap + 1L;
+        }
+
+        CriteriaQuery<Long> count = builder.createQuery(Long.class);
+        user = count.from(User.class);
+        count.select(builder.count(user));
+        where(count, user, builder, specification);
+        return entityManager.createQuery(count).getSingleResult();
+    }
+
+    @Override
+    @Transactional
+    public int deleteMatching(Specification<User> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaDelete<User> delete = builder.createCriteriaDelete(User.class);
+        Root<User> user = delete.from(User.class);
+        // The specifications only build predicates on the root, the query is not used
+        Predicate predicate = specification.toPredicate(user, builder.createQuery(), builder);
+        if (predicate != null) {
+            delete.where(predicate);
+        }
+        int deleted = entityManager.createQuery(delete).executeUpdate();
+        // The deleted users may still be managed by the persistence context, a find must not return them. Its pending
+        // changes have been flushed before the statement
+        entityManager.clear();
+        return deleted;
+    }
+
+    private static void where(CriteriaQuery<?> query, Root<User> user, CriteriaBuilder builder,
+                              Specification<User> specification) {
+        Predicate predicate = specification.toPredicate(user, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The sharding layer under UserRepository (sharded profile, see ShardingConfig). The calls made out of any shard are
+ * routed by the aspect, each in its own transaction on its shard:
+ * <ul>
+ *     <li>by id (findDtoById, existsById, the deletes by id): to the shard of the id</li>
+ *     <li>save: a new user is given a Snowflake id, the shard of the user, and claims its key (name, birthday) in the
+ *     UserKeyIndex before its insert, as a renamed user before its update. A claimed key is a DataIntegrityViolation,
+ *     as the unique constraint of a single database. saveAll saves the new users by shard, the existing ones as save.</li>
+ *     <li>by key (existsByNameAndBirthday, findByNameAndBirthday): through the UserKeyIndex</li>
+ *     <li>the lists and the counts (findPageAfter, search, countUpTo, findByNameIn, streamAll, deleteMatching): sent
+ *     to every shard at once, the pages being merged in their order and cut to their limit</li>
+ * </ul>
+ * UserRepository only exposes routed methods, checked at startup. The calls made on a shard (UserShards.current() not
+ * null) run there, they are not routed.
+ * A save of a country is copied to every shard, with the id given by the first one.
+ * <p>
+ * A transaction covers a single shard: the writes on several shards (saveAll, deleteMatching) are not atomic.
+ */
+@Aspect
+@Component
+@Profile("sharded")
+@RequiredArgsConstructor
+public class UserShardingAspect {
+    // The pages of each shard merged by streamAll
+    static final int STREAM_PAGE_SIZE = 500;
+    // The pages of each shard deleted by deleteMatching
+    static final int DELETE_PAGE_SIZE = 1000;
+    private static final Comparator<UserDto> BY_ID = Comparator.comparing(UserDto::getId);
+
+    private final UserShards shards;
+    private final UserKeyIndex keyIndex;
+    private final SnowflakeIdGenerator idGenerator;
+    // Resolved at the first call: the repository is advised by this aspect
+    private final ObjectProvider<UserRepository> userRepository;
+
+    // The routing of each method of UserRepository by name, checked against its methods at startup
+    private final Map<String, Route> routes = routes();
+
+    /**
+     * Fail at startup if a method of UserRepository is not routed to the shards
+     */
+    @PostConstruct
+    public void checkRoutes() {
+        List<String> unrouted = Arrays.stream(UserRepository.class.getMethods())
+                .filter(method -> !Modifier.isStatic(method.getModifiers()))
+                .map(Method::getName)
+                .filter(name -> !routes.containsKey(name))
+                .distinct().sorted().toList();
+        if (!unrouted.isEmpty()) {
+            throw new IllegalStateException("The methods " + unrouted + " of UserRepository are not routed to the shards");
+        }
+    }
+
+    @Around("execution(* *(..)) && target(com.gvormbrock.test.repository.UserRepository)")
+    public Object routeUserRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        Route route = routes.get(joinPoint.getSignature().getName());
+        // Only the methods of UserRepository are routed, not the ones of Object or of the proxy
+        if (UserShards.current() != null || route == null
+                || !joinPoint.getSignature().getDeclaringType().isAssignableFrom(UserRepository.class)) {
+            return joinPoint.proceed();
+        }
+        return route.apply(joinPoint, joinPoint.getArgs());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Route> routes() {
+        Map<String, Route> routes = new HashMap<>();
+        Route byId = (joinPoint, args) -> shards.inShard(shards.shardOf((Long) args[0]), true, () -> proceed(joinPoint, args));
+        routes.put("findById", byId);
+        routes.put("findDtoById", byId);
+        routes.put("existsById", byId);
+        Route deleteById = (joinPoint, args) -> deleteById(joinPoint, (Long) args[0]);
+        routes.put("deleteById", deleteById);
+        routes.put("deleteUserById", deleteById);
+        routes.put("deleteByIdAndVersion", deleteById);
+        Route save = (joinPoint, args) -> save(joinPoint, (User) args[0]);
+        routes.put("save", save);
+        routes.put("saveAndFlush", save);
+        routes.put("saveAll", (joinPoint, args) -> saveAll(joinPoint, args[0]));
+        routes.put("existsByNameAndBirthday",
+                (joinPoint, args) -> keyIndex.findOwner((String) args[0], (LocalDate) args[1]).isPresent());
+        routes.put("findByNameAndBirthday",
+                (joinPoint, args) -> findByNameAndBirthday((String) args[0], (LocalDate) args[1]));
+        routes.put("findPageAfter", (joinPoint, args) -> merge(
+                shards.inEachShard(true, shard -> (List<UserDto>) proceed(joinPoint, args)),
+                BY_ID, ((Pageable) args[1]).getPageSize()));
+        routes.put("search", (joinPoint, args) -> {
+            // Checked before the queries
+            Comparator<UserDto> order = comparator((Sort) args[1]);
+            return merge(shards.inEachShard(true, shard -> (List<UserDto>) proceed(joinPoint, args)), order,
+                    (Integer) args[2]);
+        });
+        routes.put("countUpTo", (joinPoint, args) -> Math.min(
+                shards.inEachShard(true, shard -> (Long) proceed(joinPoint, args)).stream().mapToLong(Long::longValue).sum(),
+                (Integer) args[1] + 1L));
+        routes.put("findByNameIn", (joinPoint, args) -> shards.inEachShard(true, shard -> (List<?>) proceed(joinPoint, args))
+                .stream().flatMap(List::stream).toList());
+        routes.put("deleteMatching", (joinPoint, args) -> deleteMatching(joinPoint, (Specification<User>) args[0]));
+        routes.put("streamAll", (joinPoint, args) -> streamAll());
+        routes.put("flush", (joinPoint, args) -> joinPoint.proceed());
+        return Map.copyOf(routes);
+    }
+
+    @Around("execution(* save(..)) && target(com.gvormbrock.test.repository.CountryRepository)")
+    public Object replicateCountry(ProceedingJoinPoint joinPoint) throws Throwable {
+        Country country = (Country) joinPoint.proceed();
+        if (UserShards.current() == null) {
+            // Saved on the first shard, which generated its id
+            for (int shard = 1; shard < shards.count(); shard++) {
+                shards.jdbcTemplate(shard).update("merge into country (id, country_code, name) key (id) values (?, ?, ?)",
+                        country.getId(), country.getCountryCode(), country.getName());
+            }
+        }
+        return country;
+    }
+
+    private Object save(ProceedingJoinPoint joinPoint, User user) {
+        if (user.getVersion() == null) {
+            if (user.getId() == null) {
+                user.setId(idGenerator.nextId());
+            }
+            keyIndex.claim(user.getName(), user.getBirthday(), user.getId());
+            try {
+                return shards.inShard(shards.shardOf(user.getId()), false, () -> proceed(joinPoint, joinPoint.getArgs()));
+            } catch (RuntimeException e) {
+                keyIndex.release(user.getName(), user.getBirthday(), user.getId());
+                throw e;
+            }
+        }
+        int shard = shards.shardOf(user.getId());
+        Optional<UserDto> current = shards.inShard(shard, true, () -> userRepository.getObject().findDtoById(user.getId()));
+        boolean renamed = current.isPresent() && !(current.get().getName().equals(user.getName())
+                && current.get().getBirthday().equals(user.getBirthday()));
+        if (renamed) {
+            keyIndex.claim(user.getName(), user.getBirthday(), user.getId());
+        }
+        Object saved;
+        try {
+            saved = shards.inShard(shard, false, () -> proceed(joinPoint, joinPoint.getArgs()));
+        } catch (RuntimeException e) {
+            if (renamed) {
+                keyIndex.release(user.getName(), user.getBirthday(), user.getId());
+            }
+            throw e;
+        }
+        if (renamed) {
+            keyIndex.release(current.get().getName(), current.get().getBirthday(), user.getId());
+        }
+        return saved;
+    }
+
+    /**
+     * The new users are inserted by shard, each shard in its own transaction. The existing users are then saved one
+     * after the other as by save, for the keys of the renamed ones.
+     *
+     * @return the saved users in the order of the entities
+     */
+    @SuppressWarnings("unchecked")
+    private Object saveAll(ProceedingJoinPoint joinPoint, Object entities) {
+        List<User> users = new ArrayList<>();
+        ((Iterable<User>) entities).forEach(users::add);
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        List<User> claimed = new ArrayList<>();
+        // Read first: the inserts give a version to the new users
+        List<Integer> existing = IntStream.range(0, users.size()).filter(i -> users.get(i).getVersion() != null)
+                .boxed().toList();
+        try {
+            for (User user : users) {
+                if (user.getVersion() != null) {
+                    continue;
+                }
+                if (user.getId() == null) {
+                    user.setId(idGenerator.nextId());
+                }
+                keyIndex.claim(user.getName(), user.getBirthday(), user.getId());
+                claimed.add(user);
+                usersByShard.computeIfAbsent(shards.shardOf(user.getId()), shard -> new ArrayList<>()).add(user);
+            }
+        } catch (RuntimeException e) {
+            claimed.forEach(user -> keyIndex.release(user.getName(), user.getBirthday(), user.getId()));
+            throw e;
+        }
+
+        RuntimeException failure = null;
+        // One shard after the other: the keys of the users of a shard which fails are released
+        for (Map.Entry<Integer, List<User>> shardUsers : usersByShard.entrySet()) {
+            try {
+                shards.inShard(shardUsers.getKey(), false, () -> proceed(joinPoint, new Object[]{shardUsers.getValue()}));
+            } catch (RuntimeException e) {
+                shardUsers.getValue().forEach(user -> keyIndex.release(user.getName(), user.getBirthday(), user.getId()));
+                failure = failure == null ? e : failure;
+            }
+        }
+        List<User> saved = new ArrayList<>(users);
+        for (int i : existing) {
+            try {
+                saved.set(i, userRepository.getObject().save(users.get(i)));
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return saved;
+    }
+
+    private Object deleteById(ProceedingJoinPoint joinPoint, long id) {
+        Deleted deleted = shards.inShard(shards.shardOf(id), false, () -> {
+            Optional<UserDto> current = userRepository.getObject().findDtoById(id);
+            Object result = proceed(joinPoint, joinPoint.getArgs());
+            boolean done = result instanceof Integer count ? count > 0 : current.isPresent();
+            return new Deleted(result, done ? current.stream().toList() : List.of());
+        });
+        deleted.users().forEach(user -> keyIndex.release(user.getName(), user.getBirthday(), user.getId()));
+        return deleted.result();
+    }
+
+    /**
+     * The matching users are deleted by pages of DELETE_PAGE_SIZE on every shard at once, each page in its own
+     * transaction: the page is read for the keys of its users, deleted by their ids, then its keys are released with a
+     * batch by shard of the keys. The keys are on other shards than their users, a single statement cannot delete both.
+     */
+    private int deleteMatching(ProceedingJoinPoint joinPoint, Specification<User> specification) {
+        int count = 0;
+        List<Integer> remaining = IntStream.range(0, shards.count()).boxed().toList();
+        while (!remaining.isEmpty()) {
+            List<Deleted> deleted = shards.inShards(remaining, false, shard -> {
+                List<UserDto> users = userRepository.getObject().search(specification, Sort.unsorted(), DELETE_PAGE_SIZE);
+                if (users.isEmpty()) {
+                    return new Deleted(0, users);
+                }
+                List<Long> ids = users.stream().map(UserDto::getId).toList();
+                // The users read by the page only, not those created meanwhile
+                Specification<User> page = specification.and((user, query, builder) -> user.get("id").in(ids));
+                return new Deleted(proceed(joinPoint, new Object[]{page}), users);
+            });
+            List<Integer> next = new ArrayList<>();
+            for (int i = 0; i < deleted.size(); i++) {
+                count += (Integer) deleted.get(i).result();
+                keyIndex.releaseAll(deleted.get(i).users());
+                if (deleted.get(i).users().size() == DELETE_PAGE_SIZE) {
+                    next.add(remaining.get(i));
+                }
+            }
+            remaining = next;
+        }
+        return count;
+    }
+
+    private List<User> findByNameAndBirthday(String name, LocalDate birthday) {
+        return keyIndex.findOwner(name, birthday)
+                .flatMap(id -> shards.inShard(shards.shardOf(id), true, () -> userRepository.getObject().findById(id)))
+                .stream().toList();
+    }
+
+    /**
+     * All the users ordered by id: the pages of STREAM_PAGE_SIZE users of each shard are read one after the other and
+     * merged, each in its own short transaction
+     */
+    private Stream<UserDto> streamAll() {
+        List<ShardCursor> cursors = new ArrayList<>(shards.count());
+        for (int shard = 0; shard < shards.count(); shard++) {
+            cursors.add(new ShardCursor(shard));
+        }
+        Iterator<UserDto> merged = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursors.stream().anyMatch(cursor -> cursor.peek() != null);
+            }
+
+            @Override
+            public UserDto next() {
+                return cursors.stream().filter(cursor -> cursor.peek() != null)
+                        .min(Comparator.comparing(ShardCursor::peek, BY_ID))
+                        .orElseThrow(NoSuchElementException::new)
+                        .poll();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static List<UserDto> merge(List<List<UserDto>> pages, Comparator<UserDto> order, int limit) {
+        return pages.stream().flatMap(List::stream).sorted(order).limit(limit).toList();
+    }
+
+    /**
+     * The order of the sort on the UserDto, whose properties have the names of the columns of User. H2 compares the
+     * strings as String.compareTo and sorts the nulls first, the last when descending.
+     *
+     * @throws IllegalArgumentException if a property of the sort is not a property of UserDto
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparator<UserDto> comparator(Sort sort) {
+        Comparator<UserDto> comparator = (first, second) -> 0;
+        for (Sort.Order order : sort) {
+            PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(UserDto.class, order.getProperty());
+            if (descriptor == null || descriptor.getReadMethod() == null
+                    || !Comparable.class.isAssignableFrom(ClassUtils.resolvePrimitiveIfNecessary(descriptor.getPropertyType()))) {
+                throw new IllegalArgumentException("The users of the shards cannot be sorted by " + order.getProperty());
+            }
+            Method getter = descriptor.getReadMethod();
+            Comparator<UserDto> property = Comparator.comparing(
+                    user -> (Comparable<Object>) ReflectionUtils.invokeMethod(getter, user),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            comparator = comparator.thenComparing(order.isDescending() ? property.reversed() : property);
+        }
+        return comparator;
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint, Object[] args) {
+        try {
+            return joinPoint.proceed(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private record Deleted(Object result, List<UserDto> users) {
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        Object apply(ProceedingJoinPoint joinPoint, Object[] args) throws Throwable;
+    }
+
+    private final class ShardCursor {
+        private final int shard;
+        private final Deque<UserDto> page = new ArrayDeque<>();
+        private long after;
+        private boolean last;
+
+        private ShardCursor(int shard) {
+            this.shard = shard;
+        }
+
+        UserDto peek() {
+            if (page.isEmpty() && !last) {
+                List<UserDto> users = shards.inShard(shard, true,
+                        () -> userRepository.getObject().findPageAfter(after, PageRequest.ofSize(STREAM_PAGE_SIZE)));
+                page.addAll(users);
+                last = users.size() < STREAM_PAGE_SIZE;
+                if (!users.isEmpty()) {
+                    after = users.get(users.size() - 1).getId();
+                }
+            }
+            return page.peek();
+        }
+
+        UserDto poll() {
+            return Objects.requireNonNull(page.poll());
+        }
+    }
+}
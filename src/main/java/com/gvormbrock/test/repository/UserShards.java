@@ -0,0 +1,166 @@
+package com.gvormbrock.test.repository;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * The shards of the sharded profile (see ShardingConfig): databases with the same schema and the same countries, each
+ * user being stored on the shard of the hash of its id. The shard of the current thread, null outside of the shards,
+ * is the target of the connections of the data source of JPA (see ShardRoutingDataSource); without any shard it is the
+ * first one, which holds the countries as every shard.
+ * <p>
+ * The number of shards is fixed: adding one moves most of the users, which is not supported.
+ */
+public class UserShards implements AutoCloseable {
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final List<DataSource> dataSources;
+    private final List<JdbcTemplate> jdbcTemplates;
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+    // The fan-out of the queries to every shard, each on its own thread
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public UserShards(List<? extends DataSource> dataSources, ObjectProvider<PlatformTransactionManager> transactionManager) {
+        if (dataSources.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.dataSources = List.copyOf(dataSources);
+        this.jdbcTemplates = this.dataSources.stream().map(JdbcTemplate::new).toList();
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * @return the shard of the current thread, null if none
+     */
+    public static Integer current() {
+        return CURRENT.get();
+    }
+
+    public int count() {
+        return dataSources.size();
+    }
+
+    public List<DataSource> getDataSources() {
+        return dataSources;
+    }
+
+    /**
+     * @return the statements of a shard outside of any transaction, each one committed at once
+     */
+    public JdbcTemplate jdbcTemplate(int shard) {
+        return jdbcTemplates.get(shard);
+    }
+
+    public int shardOf(long id) {
+        return Math.floorMod(mix(id), count());
+    }
+
+    /**
+     * @return the shard of the key of a user (see UserKeyIndex)
+     */
+    public int shardOf(String name, LocalDate birthday) {
+        return Math.floorMod(mix(31L * name.hashCode() + birthday.toEpochDay()), count());
+    }
+
+    /**
+     * Run the work in a new transaction on a shard, the transaction of the caller being suspended
+     */
+    public <T> T inShard(int shard, boolean readOnly, Supplier<T> work) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager.getObject());
+            transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transaction.setReadOnly(readOnly);
+            return transaction.execute(status -> work.get());
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Run the work on every shard at once, each in its own transaction
+     *
+     * @return the results by shard
+     */
+    public <T> List<T> inEachShard(boolean readOnly, IntFunction<T> work) {
+        return inShards(IntStream.range(0, count()).boxed().toList(), readOnly, work);
+    }
+
+    /**
+     * Run the work on the given shards at once, each in its own transaction. The failure of a shard does not roll back
+     * the others: the first one is thrown once they are all done.
+     *
+     * @return the results in the order of the shards
+     */
+    public <T> List<T> inShards(List<Integer> shards, boolean readOnly, IntFunction<T> work) {
+        if (shards.size() == 1) {
+            int shard = shards.get(0);
+            return Collections.singletonList(inShard(shard, readOnly, () -> work.apply(shard)));
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            futures.add(executor.submit(() -> inShard(shard, readOnly, () -> work.apply(shard))));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        RuntimeException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the shards", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Stop the fan-out and close the pools of the shards
+     */
+    @Override
+    public void close() throws Exception {
+        executor.close();
+        for (DataSource dataSource : dataSources) {
+            if (dataSource instanceof AutoCloseable pool) {
+                pool.close();
+            }
+        }
+    }
+
+    // The finalizer of MurmurHash3: the ids of a node only differ by their low bits
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ value >>> 33;
+    }
+}
@@ -0,0 +1,86 @@
+package com.gvormbrock.test.repository;
+
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * The filters of the user search and of the bulk delete. Each one is served by an index of USER_TABLE: the ids by the
+ * primary key, the name prefix by the unique (name, birthday) index, the birthday range by IDX_USER_BIRTHDAY, the country
+ * and the gender by IDX_USER_COUNTRY_GENDER.
+ */
+public final class UserSpecifications {
+    private static final char LIKE_ESCAPE = '\\';
+
+    private UserSpecifications() {
+    }
+
+    public static Specification<User> idIn(Collection<Long> ids) {
+        return (user, query, builder) -> user.get("id").in(ids);
+    }
+
+    public static Specification<User> nameStartsWith(String prefix) {
+        return (user, query, builder) -> builder.like(user.get("name"), escapeLike(prefix) + "%", LIKE_ESCAPE);
+    }
+
+    public static Specification<User> livesIn(Country country) {
+        return (user, query, builder) -> builder.equal(user.get("countryOfResidence"), country);
+    }
+
+    public static Specification<User> hasGender(String gender) {
+        return (user, query, builder) -> builder.equal(user.get("gender"), gender);
+    }
+
+    public static Specification<User> bornFrom(LocalDate from) {
+        return (user, query, builder) -> builder.greaterThanOrEqualTo(user.get("birthday"), from);
+    }
+
+    public static Specification<User> bornTo(LocalDate to) {
+        return (user, query, builder) -> builder.lessThanOrEqualTo(user.get("birthday"), to);
+    }
+
+    /**
+     * Keyset pagination: the users after the last one of the previous page, in the order of the attribute then of the
+     * id (the order given to UserSearchRepository.search)
+     *
+     * @param attribute  the sort attribute, id, name or birthday
+     * @param lastValue  its value for the last user of the previous page, ignored if the attribute is id
+     * @param lastId     the id of the last user of the previous page
+     * @param descending the direction of the sort
+     */
+    public static <T extends Comparable<? super T>> Specification<User> after(String attribute, T lastValue,
+                                                                             long lastId, boolean descending) {
+        return (user, query, builder) -> {
+            Predicate afterId = compare(builder, user.get("id"), lastId, descending);
+            if (attribute.equals("id")) {
+                return afterId;
+            }
+            Expression<T> value = user.get(attribute);
+            return builder.or(compare(builder, value, lastValue, descending),
+                    builder.and(builder.equal(value, lastValue), afterId));
+        };
+    }
+
+    private static <T extends Comparable<? super T>> Predicate compare(CriteriaBuilder builder, Expression<T> value,
+                                                                     T last, boolean descending) {
+        return descending ? builder.lessThan(value, last) : builder.greaterThan(value, last);
+    }
+
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
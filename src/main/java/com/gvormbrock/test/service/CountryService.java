@@ -1,24 +1,44 @@
 package com.gvormbrock.test.service;
 
+import com.gvormbrock.test.aspect.Profiled;
 import com.gvormbrock.test.model.Country;
 import com.gvormbrock.test.repository.CountryRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * The countries are a small reference table: they are served from an immutable in memory snapshot indexed by
+ * countryCode and by case folded name. The snapshot is loaded at the first lookup and replaced at once on save.
+ */
 @Service
 @RequiredArgsConstructor
+@Profiled
 public class CountryService {
     private final CountryRepository countryRepository;
+    private final UserETags userETags;
 
+    private volatile CountrySnapshot snapshot;
+    // Not a monitor: the first lookups may run on virtual threads, which a monitor pins during the load
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
 
     public Optional<Country> findByName(String name) {
-        return countryRepository.findByName(name);
+        return count(name == null ? null : snapshot().byName().get(name.toLowerCase(Locale.ROOT)));
     }
 
     public Optional<Country> findByCountryCode(String countryCode) {
-        return countryRepository.findByCountryCode(countryCode);
+        return count(countryCode == null ? null : snapshot().byCountryCode().get(countryCode));
     }
 
     public Optional<Country> findById(Long id) {
@@ -27,5 +47,81 @@ public class CountryService {
 
     public void save(Country country) {
         countryRepository.save(country);
+        refresh();
+        // The users give the name of their country
+        userETags.countriesChanged();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Drop the snapshot after a rollback of the surrounding transaction: it holds rows that do not exist. After
+            // a commit it is kept, so that the next lookup does not read the database (an event loop of the reactive
+            // profile must not)
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        snapshot = null;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reload the snapshot from the database. To be called if the country table has been changed without this service.
+     */
+    public void refresh() {
+        snapshot = CountrySnapshot.of(countryRepository.findAll());
+    }
+
+    /**
+     * @return false if the next lookup reads the database to load the snapshot
+     */
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private CountrySnapshot snapshot() {
+        CountrySnapshot current = snapshot;
+        if (current == null) {
+            loadLock.lock();
+            try {
+                current = snapshot;
+                if (current == null) {
+                    current = CountrySnapshot.of(countryRepository.findAll());
+                    snapshot = current;
+                }
+            } finally {
+                loadLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    private Optional<Country> count(Country country) {
+        if (country == null) {
+            missCount.increment();
+            return Optional.empty();
+        }
+        hitCount.increment();
+        return Optional.of(country);
+    }
+
+    private record CountrySnapshot(Map<String, Country> byCountryCode, Map<String, Country> byName) {
+        static CountrySnapshot of(List<Country> countries) {
+            Map<String, Country> byCountryCode = new HashMap<>();
+            Map<String, Country> byName = new HashMap<>();
+            for (Country country : countries) {
+                byCountryCode.put(country.getCountryCode(), country);
+                byName.put(country.getName().toLowerCase(Locale.ROOT), country);
+            }
+            return new CountrySnapshot(Map.copyOf(byCountryCode), Map.copyOf(byName));
+        }
     }
 }
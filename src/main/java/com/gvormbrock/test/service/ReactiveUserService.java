@@ -0,0 +1,106 @@
+package com.gvormbrock.test.service;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.NotFoundException;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.repository.ReactiveUserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The reactive counterpart of UserService (reactive profile), with the same rules and error codes.
+ * The users written here do not go through Hibernate: they are not seen by its second level cache.
+ */
+@Service
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveUserService {
+    public static final int STREAM_PAGE_SIZE = 500;
+
+    private final ReactiveUserRepository reactiveUserRepository;
+    private final UserRules userRules;
+    private final CountryService countryService;
+    private final TransactionalOperator reactiveTransactionalOperator;
+
+    /**
+     * Return a page of users using keyset pagination on the id.
+     *
+     * @param after the id of the last user of the previous page, 0 for the first page
+     * @param limit the maximum number of users to return, capped to UserService.MAX_PAGE_SIZE
+     */
+    public Flux<UserDto> findAll(long after, int limit) {
+        return reactiveUserRepository.findPageAfter(after, Math.max(1, Math.min(limit, UserService.MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * All the users ordered by id, read by keyset pages of STREAM_PAGE_SIZE. A page is only read once the subscriber
+     * has consumed the previous one: a slow subscriber holds at most two pages in memory.
+     */
+    public Flux<UserDto> streamAll() {
+        return reactiveUserRepository.findPageAfter(0, STREAM_PAGE_SIZE).collectList()
+                .expand(page -> page.size() < STREAM_PAGE_SIZE ? Mono.empty()
+                        : reactiveUserRepository.findPageAfter(page.get(page.size() - 1).getId(), STREAM_PAGE_SIZE).collectList())
+                .flatMapIterable(page -> page, 1);
+    }
+
+    public Mono<UserDto> findById(long id) {
+        return reactiveUserRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new NotFoundException(400, "User with id = " + id + " does not exists")));
+    }
+
+    /**
+     * Save a user under the constraints of UserService.save
+     *
+     * @param isTestIfExists if true, fails if the user exists. Whatever its value, two users can not have the same
+     *                       name and birthday.
+     */
+    public Mono<UserDto> save(UserDto userDto, boolean isTestIfExists) {
+        Mono<Country> checked = Mono.fromCallable(() -> userRules.check(userDto));
+        if (!countryService.isLoaded()) {
+            // The check loads the countries with JPA (after a rollback of a country change): not on the event loop
+            checked = checked.subscribeOn(Schedulers.boundedElastic());
+        }
+        return checked
+                .flatMap(country -> (isTestIfExists
+                        ? reactiveUserRepository.existsByNameAndBirthday(userDto.getName(), userDto.getBirthday())
+                        : Mono.just(false))
+                        .flatMap(exists -> exists
+                                ? Mono.<UserDto>error(UserRules.userExistsException(userDto.getName(), userDto.getBirthday()))
+                                : write(userDto, country)))
+                .as(reactiveTransactionalOperator::transactional)
+                .onErrorMap(DataIntegrityViolationException.class,
+                        e -> UserRules.userExistsException(userDto.getName(), userDto.getBirthday()));
+    }
+
+    public Mono<Void> deleteById(long id) {
+        return reactiveUserRepository.deleteById(id)
+                .flatMap(deleted -> deleted == 0
+                        ? Mono.<Void>error(new NotFoundException(401, "User of id = " + id + " does not exist."))
+                        : Mono.<Void>empty());
+    }
+
+    /**
+     * Update the user if its id exists, else insert it with a new id (as the merge of JPA)
+     */
+    private Mono<UserDto> write(UserDto userDto, Country country) {
+        Mono<Long> id = userDto.getId() == null
+                ? reactiveUserRepository.insert(userDto, country.getId())
+                : reactiveUserRepository.update(userDto, country.getId())
+                .flatMap(updated -> updated == 0
+                        ? reactiveUserRepository.insert(userDto, country.getId())
+                        : Mono.just(userDto.getId()));
+        return id.map(savedId -> {
+            userDto.setId(savedId);
+            // One of the two following attributes could have not been set
+            userDto.setCountryCode(country.getCountryCode());
+            userDto.setCountryName(country.getName());
+            return userDto;
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package com.gvormbrock.test.service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+
+/**
+ * The current date in the zone of the clock. It is computed once a day: the next calls only read the clock millis
+ * and compare them to the start of the next day, they do not allocate.
+ */
+@Component
+public class Today {
+    private final Clock clock;
+    private volatile Day day;
+
+    public Today(Clock clock) {
+        this.clock = clock;
+        this.day = Day.of(clock);
+    }
+
+    public LocalDate get() {
+        Day current = day;
+        if (clock.millis() >= current.nextDayMillis()) {
+            current = Day.of(clock);
+            day = current;
+        }
+        return current.date();
+    }
+
+    /**
+     * The number of full years from the date to today: a year is counted on the anniversary of the date (on the 1st
+     * of March for the 29th of February when the year is not a leap year). Negative for a date in the future.
+     */
+    public int yearsSince(LocalDate date) {
+        LocalDate today = get();
+        int years = today.getYear() - date.getYear();
+        if (today.getMonthValue() < date.getMonthValue()
+                || (today.getMonthValue() == date.getMonthValue() && today.getDayOfMonth() < date.getDayOfMonth())) {
+            years--;
+        }
+        return years;
+    }
+
+    private record Day(LocalDate date, long nextDayMillis) {
+        static Day of(Clock clock) {
+            LocalDate date = LocalDate.now(clock);
+            return new Day(date, date.plusDays(1).atStartOfDay(clock.getZone()).toInstant().toEpochMilli());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.gvormbrock.test.service;
+
+import com.gvormbrock.test.dto.UserDto;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The strong entity tags (without the quotes) of the users for the conditional requests:
+ * <ul>
+ *     <li>a user: its version and a hash of its country, as the user gives its country name. It only depends on the
+ *     content: a change of another country or a restart does not change it.</li>
+ *     <li>the list: the number of user and country changes since the start, or the number of the copy of the replica
+ *     when the list is read from the replica (it lags behind the counters, see ReplicaRoutingDataSource)</li>
+ * </ul>
+ * The tags of the CBOR bodies end with CBOR_SUFFIX: the JSON and CBOR bodies of the same content are different bodies,
+ * a client or a cache must not validate the one with the tag of the other.
+ * <p>
+ * The list tag starts with the start time of the application: the counters are kept in memory, a restart must not give
+ * a tag of the previous run to another content. The counters, as the copy number of the replica, are incremented after
+ * the commit of the change: a request which reads a counter before its query never gets a tag newer than its content.
+ */
+@Component
+public class UserETags {
+    public static final String CBOR_SUFFIX = "-cbor";
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong userChanges = new AtomicLong();
+    private final AtomicLong countryChanges = new AtomicLong();
+
+    /**
+     * @param bodyType the type of the body of the response, JSON or CBOR
+     */
+    public String ofUser(UserDto user, MediaType bodyType) {
+        return ofUser(user) + suffix(bodyType);
+    }
+
+    /**
+     * @param bodyType the type of the body of the response, JSON or CBOR
+     */
+    public String ofList(MediaType bodyType) {
+        // The user changes are read first: a country change in between only gives a newer tag
+        long users = userChanges.get();
+        return epoch + "-" + countryChanges.get() + "-" + users + suffix(bodyType);
+    }
+
+    /**
+     * @param replicaCopy the copy of the replica which is read, see ReplicaRoutingDataSource.readTarget
+     * @param bodyType    the type of the body of the response, JSON or CBOR
+     */
+    public String ofReplicaList(long replicaCopy, MediaType bodyType) {
+        return epoch + "-r" + replicaCopy + suffix(bodyType);
+    }
+
+    /**
+     * @param ifMatch the If-Match header: * or a list of tags
+     * @return true if the header matches the tag of the user in any body type, with the strong comparison (a weak tag
+     * never matches)
+     */
+    public boolean matches(String ifMatch, UserDto user) {
+        if (ifMatch.trim().equals("*")) {
+            return true;
+        }
+        String tag = "\"" + ofUser(user);
+        for (String candidate : ifMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals(tag + "\"") || trimmed.equals(tag + CBOR_SUFFIX + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called after users have been created, updated or deleted, in or out of their transaction
+     */
+    public void usersChanged() {
+        afterCompletion(userChanges);
+    }
+
+    /**
+     * Called after countries have been saved, in or out of their transaction
+     */
+    public void countriesChanged() {
+        afterCompletion(countryChanges);
+    }
+
+    private static String ofUser(UserDto user) {
+        return "v" + user.getVersion() + "-" + Integer.toHexString(Objects.hash(user.getCountryCode(), user.getCountryName()));
+    }
+
+    private static String suffix(MediaType bodyType) {
+        return MediaType.APPLICATION_CBOR.isCompatibleWith(bodyType) ? CBOR_SUFFIX : "";
+    }
+
+    private static void afterCompletion(AtomicLong counter) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Also incremented after a rollback: the clients only get the same content again
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    counter.incrementAndGet();
+                }
+            });
+        } else {
+            counter.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.gvormbrock.test.service;
+
+import com.gvormbrock.test.aspect.Profiled;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.ErrorServerException;
+import com.gvormbrock.test.model.Country;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+/**
+ * The constraints of a user to save, but its existence which depends on the database access: shared by UserService
+ * and ReactiveUserService. The checks only read memory (the country snapshot once loaded), they never block.
+ */
+@Component
+@RequiredArgsConstructor
+@Profiled
+public class UserRules {
+    private final UserValidator userValidator;
+    private final CountryService countryService;
+    private final Today today;
+
+    /**
+     * Check the constraints of a user to save but the existence of the user.
+     *
+     * @return the country of residence of the user
+     * @throws ErrorServerException if the country does not exist or nme is blank or birthday does not exist or user is
+     * not french or have less than 18 years or any other validation error defined in UserDto (a ValidationErrorException
+     * listing all the violations)
+     */
+    public Country check(UserDto userDto) throws ErrorServerException {
+        userValidator.check(userDto);
+
+        Optional<Country> foundCountry;
+        if (userDto.getCountryCode() != null) {
+            foundCountry = countryService.findByCountryCode(userDto.getCountryCode());
+        } else {
+            foundCountry = countryService.findByName(userDto.getCountryName());
+        }
+        if (foundCountry.isEmpty()) {
+            throw new ErrorServerException(450, "The country code " + userDto.getCountryCode() + " does not exists or the country name " + userDto.getCountryName() + " does not exists.");
+        }
+
+        Country country = foundCountry.get();
+        if (!country.getCountryCode().equals("fr")) {
+            throw new ErrorServerException(110, "User must be french to be added");
+        }
+        if (today.yearsSince(userDto.getBirthday()) < 18) {
+            throw new ErrorServerException(111, "User must be at least 18 years old to be added");
+        }
+        return country;
+    }
+
+    public static ErrorServerException userExistsException(String name, LocalDate birthday) {
+        return new ErrorServerException(120, "The user of name " + name + " borne the " + birthday + " ever exists");
+    }
+}
@@ -1,128 +1,470 @@
 package com.gvormbrock.test.service;
 
+import com.gvormbrock.test.aspect.Profiled;
+import com.gvormbrock.test.dto.UserBatchResultDto;
 import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserSearchCriteria;
+import com.gvormbrock.test.dto.UserSearchResultDto;
+import com.gvormbrock.test.dto.UserWriteStatusDto;
 import com.gvormbrock.test.exception.*;
 import com.gvormbrock.test.mapper.UserMapper;
 import com.gvormbrock.test.model.Country;
 import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.repository.UserNameAndBirthday;
 import com.gvormbrock.test.repository.UserRepository;
-import jakarta.persistence.EntityNotFoundException;
-import jakarta.validation.ConstraintViolation;
-import jakarta.validation.Validation;
-import jakarta.validation.Validator;
-import jakarta.validation.ValidatorFactory;
+import com.gvormbrock.test.repository.UserSpecifications;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.sql.Date;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
+@Profiled
 public class UserService {
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int BATCH_CHUNK_SIZE = 1000;
+    public static final int SEARCH_COUNT_CAP = 10_000;
+    private static final Set<String> SEARCH_SORTS = Set.of("id", "name", "birthday");
+
     private final UserRepository userRepository;
-    private final CountryService countryService;
     private final UserMapper userMapper;
+    private final UserRules userRules;
+    private final CountryService countryService;
+    private final EntityManager entityManager;
+    private final UserETags userETags;
+    // Only available in the write-behind mode
+    private final ObjectProvider<UserWriteBehind> userWriteBehind;
 
-    public List<UserDto> findAll() {
-        return userRepository.findAll().stream().
-                map(userMapper::mapToUserDto).toList();
+    /**
+     * Return a page of users using keyset pagination on the id.
+     * The reads are projections built by the query: the read only transaction sets the Hibernate flush mode to
+     * manual, and no entity enters the persistence context.
+     *
+     * @param after the id of the last user of the previous page, 0 for the first page
+     * @param limit the maximum number of users to return, capped to MAX_PAGE_SIZE
+     */
+    @Transactional(readOnly = true)
+    public List<UserDto> findAll(long after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return userRepository.findPageAfter(after, PageRequest.ofSize(pageSize));
     }
 
     /**
-     * Save a user under the following constraints which throws exceptions.
+     * Search the users matching all the given filters, by pages with keyset pagination on the sort attribute and the id.
+     * The first page gives the number of matching users, counted with the same indexes as the search and up to
+     * SEARCH_COUNT_CAP: the count never reads the whole table.
      *
-     * @param userDto        the UserDto
-     * @param isTestIfExists if true, test if the user exists and throw an exception if the user exists
-     * @throws ErrorServerException if the country does not exist or nme is blank or birthday does not exist or user is
-     * not french or have less than 18 years or any other validation error defined in UserDto
+     * @throws ErrorServerException 102 if the sort or the cursor is invalid
      */
-    public UserDto save(UserDto userDto, boolean isTestIfExists)
-            throws ErrorServerException {
-
+    @Transactional(readOnly = true)
+    public UserSearchResultDto search(UserSearchCriteria criteria) throws ErrorServerException {
+        String sort = criteria.getSort() == null ? "id" : criteria.getSort();
+        if (!SEARCH_SORTS.contains(sort)) {
+            throw new ErrorServerException(102, "The users can only be sorted by " + SEARCH_SORTS);
+        }
+        int pageSize = Math.max(1, Math.min(criteria.getLimit(), MAX_PAGE_SIZE));
+        Optional<Specification<User>> filter = searchFilter(criteria);
+        if (filter.isEmpty()) {
+            return UserSearchResultDto.builder().users(List.of()).estimatedCount(0L).countCapped(false).build();
+        }
+        Specification<User> page = criteria.getCursor() == null ? filter.get()
+                : filter.get().and(decodeCursor(criteria.getCursor(), sort, criteria.isDesc()));
+        Sort.Direction direction = criteria.isDesc() ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort order = sort.equals("id") ? Sort.by(direction, "id") : Sort.by(direction, sort, "id");
 
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        Validator validator = factory.getValidator();
+        List<UserDto> users = userRepository.search(page, order, pageSize + 1);
+        UserSearchResultDto result = new UserSearchResultDto();
+        if (users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            result.setNextCursor(encodeCursor(users.get(pageSize - 1), sort));
+        }
+        result.setUsers(users);
+        if (criteria.getCursor() == null) {
+            long count = result.getNextCursor() == null ? users.size() : userRepository.countUpTo(filter.get(), SEARCH_COUNT_CAP);
+            result.setEstimatedCount(Math.min(count, SEARCH_COUNT_CAP));
+            result.setCountCapped(count > SEARCH_COUNT_CAP);
+        }
+        return result;
+    }
 
-        Set<ConstraintViolation<UserDto>> violations = validator.validate(userDto);
+    private static boolean hasFilter(UserSearchCriteria criteria) {
+        return (criteria.getName() != null && !criteria.getName().isEmpty()) || criteria.getCountryCode() != null
+                || criteria.getGender() != null || criteria.getBornFrom() != null || criteria.getBornTo() != null;
+    }
 
-        if (!violations.isEmpty()) {
-            throw new ErrorServerException(101, "Validation error : " + violations.iterator().next().getMessage());
+    /**
+     * @return the conjunction of the filters, empty if no user can match (unknown country)
+     */
+    private Optional<Specification<User>> searchFilter(UserSearchCriteria criteria) {
+        Specification<User> filter = Specification.where(null);
+        if (criteria.getName() != null && !criteria.getName().isEmpty()) {
+            filter = filter.and(UserSpecifications.nameStartsWith(criteria.getName()));
+        }
+        if (criteria.getCountryCode() != null) {
+            // The country is resolved in memory: the filter is on the foreign key, without a join
+            Optional<Country> country = countryService.findByCountryCode(criteria.getCountryCode());
+            if (country.isEmpty()) {
+                return Optional.empty();
+            }
+            filter = filter.and(UserSpecifications.livesIn(country.get()));
+        }
+        if (criteria.getGender() != null) {
+            filter = filter.and(UserSpecifications.hasGender(criteria.getGender()));
+        }
+        if (criteria.getBornFrom() != null) {
+            filter = filter.and(UserSpecifications.bornFrom(criteria.getBornFrom()));
         }
+        if (criteria.getBornTo() != null) {
+            filter = filter.and(UserSpecifications.bornTo(criteria.getBornTo()));
+        }
+        return Optional.of(filter);
+    }
 
-        Optional<Country> foundCountry;
-        if (userDto.getCountryCode() != null) {
-            foundCountry = countryService.findByCountryCode(userDto.getCountryCode());
-        } else {
-            foundCountry = countryService.findByName(userDto.getCountryName());
+    /**
+     * The cursor is the id of the last user of the page and its value of the sort attribute
+     */
+    private static String encodeCursor(UserDto last, String sort) {
+        String value = switch (sort) {
+            case "name" -> last.getName();
+            case "birthday" -> last.getBirthday().toString();
+            default -> "";
+        };
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((last.getId() + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Specification<User> decodeCursor(String cursor, String sort, boolean descending) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            long lastId = Long.parseLong(decoded.substring(0, separator));
+            String value = decoded.substring(separator + 1);
+            return switch (sort) {
+                case "name" -> UserSpecifications.after("name", value, lastId, descending);
+                case "birthday" -> UserSpecifications.after("birthday", LocalDate.parse(value), lastId, descending);
+                default -> UserSpecifications.after("id", lastId, lastId, descending);
+            };
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new ErrorServerException(102, "Invalid cursor " + cursor);
         }
-        if (foundCountry.isEmpty()) {
-            throw new ErrorServerException(450, "The country code " + userDto.getCountryCode() + " does not exists or the country name " + userDto.getCountryName() + " does not exists.");
+    }
+
+    /**
+     * Give all the users, ordered by id, one by one to the consumer while the JDBC cursor is open.
+     * The users are projections: the persistence context does not grow with the table size.
+     */
+    @Transactional(readOnly = true)
+    public void streamAll(Consumer<UserDto> consumer) {
+        try (Stream<UserDto> users = userRepository.streamAll()) {
+            users.forEach(consumer);
         }
+    }
+
+    /**
+     * Save a user under the following constraints which throws exceptions.
+     *
+     * @param userDto        the UserDto
+     * @param isTestIfExists if true, test if the user exists and throw an exception if the user exists. Whatever its
+     *                       value, two users can not have the same name and birthday.
+     * @throws ErrorServerException if the country does not exist or nme is blank or birthday does not exist or user is
+     * not french or have less than 18 years or any other validation error defined in UserDto (a ValidationErrorException
+     * listing all the violations)
+     */
+    @Transactional
+    public UserDto save(UserDto userDto, boolean isTestIfExists)
+            throws ErrorServerException {
+        return save(userDto, isTestIfExists, null);
+    }
 
-        Country country = foundCountry.get();
+    /**
+     * Save a user as save(userDto, isTestIfExists), only if its current version matches ifMatch when it is updated.
+     *
+     * @param ifMatch the If-Match header of the request, null if absent
+     * @throws PreconditionFailedException 140 if the user has been updated since the version of ifMatch, or if ifMatch
+     * is given for a user which does not exist
+     */
+    // A single transaction: the checks read the primary, as the write (see ReplicaRoutingDataSource)
+    @Transactional
+    public UserDto save(UserDto userDto, boolean isTestIfExists, String ifMatch)
+            throws ErrorServerException {
+        Country country = userRules.check(userDto);
         User user = userMapper.mapToUser(userDto, country);
-        if (!country.getCountryCode().equals("fr")) {
-            throw new ErrorServerException(110, "User must be french to be added");
-        }
-        if (countYears(user.getBirthday()) < 18L) {
-            throw new ErrorServerException(111, "User must be at least 18 years old to be added");
+        if (isTestIfExists && userRepository.existsByNameAndBirthday(user.getName(), user.getBirthday())) {
+            throw UserRules.userExistsException(user.getName(), user.getBirthday());
         }
-        if (isTestIfExists) {
-            UserDto findUserDto = this.findByNameAndBirthday(user.getName(), user.getBirthday());
-            if (findUserDto != null) {
-                throw new ErrorServerException(120, "The user of name " + user.getName() + " borne the " + user.getBirthday() + " ever exists");
+        if (user.getId() != null || ifMatch != null) {
+            // The version merged is the one matched, else the current one: a concurrent update fails at the flush
+            Optional<UserDto> current = user.getId() == null ? Optional.empty() : userRepository.findDtoById(user.getId());
+            if (ifMatch != null && (current.isEmpty() || !userETags.matches(ifMatch, current.get()))) {
+                throw preconditionFailedException(user.getId());
             }
+            // An unknown id is created as a new user, as the merge of an unknown detached user does
+            user.setId(current.map(UserDto::getId).orElse(null));
+            user.setVersion(current.map(UserDto::getVersion).orElse(null));
         }
 
-        User savedUser =  userRepository.save(user);
+        User savedUser;
+        try {
+            // Flushed at once: the unique constraint on (name, birthday) rejects a user created in between by another request
+            savedUser = userRepository.saveAndFlush(user);
+        } catch (DataIntegrityViolationException e) {
+            throw UserRules.userExistsException(user.getName(), user.getBirthday());
+        } catch (OptimisticLockingFailureException e) {
+            throw preconditionFailedException(user.getId());
+        }
+        userETags.usersChanged();
         userDto.setId(savedUser.getId());
+        userDto.setVersion(savedUser.getVersion());
         // One of the two following attributes could have not been set
         userDto.setCountryCode(country.getCountryCode());
         userDto.setCountryName(country.getName());
         return userDto;
     }
 
-    public void deleteById(Long id) {
+    /**
+     * Create a user in the write-behind mode: the user is checked as by save with isTestIfExists set to true, then
+     * given an id and queued. It is inserted later, its state is given by findWriteStatus.
+     *
+     * @throws ErrorServerException as save, or a ServiceUnavailableException if too many users are queued
+     */
+    public UserDto saveWriteBehind(UserDto userDto) throws ErrorServerException {
+        UserWriteBehind writeBehind = userWriteBehind.getIfAvailable();
+        if (writeBehind == null) {
+            throw new IllegalStateException("The write-behind mode is not enabled");
+        }
+        Country country = userRules.check(userDto);
+        User user = userMapper.mapToUser(userDto, country);
+        // Always a new user: the id is given by the queue
+        user.setId(null);
+        if (userRepository.existsByNameAndBirthday(user.getName(), user.getBirthday())) {
+            throw UserRules.userExistsException(user.getName(), user.getBirthday());
+        }
+        userDto.setId(writeBehind.enqueue(user));
+        userDto.setCountryCode(country.getCountryCode());
+        userDto.setCountryName(country.getName());
+        return userDto;
+    }
+
+    public boolean isWriteBehind() {
+        return userWriteBehind.getIfAvailable() != null;
+    }
+
+    /**
+     * @return the state of a user created by saveWriteBehind
+     * @throws NotFoundException if the user is neither queued, nor failed, nor created
+     */
+    public UserWriteStatusDto findWriteStatus(long id) throws NotFoundException {
+        UserWriteBehind writeBehind = userWriteBehind.getIfAvailable();
+        UserWriteStatusDto status = writeBehind == null ? null : writeBehind.findStatus(id);
+        if (status != null) {
+            return status;
+        }
+        if (userRepository.existsById(id)) {
+            return UserWriteStatusDto.builder().id(id).status(UserWriteStatusDto.Status.CREATED).build();
+        }
+        throw new NotFoundException(402, "User with id = " + id + " does not exists");
+    }
 
-        User res;
+    /**
+     * Import new users at once under the same constraints as save with isTestIfExists set to true.
+     * The users which do not respect a constraint are rejected, the others are inserted with JDBC batches.
+     * The duplicates are searched with a single query for the whole list and inside the list itself.
+     *
+     * @param userDtos   the users to create, at most BATCH_CHUNK_SIZE: bigger imports must be split by the caller
+     * @param firstIndex the index of the first user in the whole import, used in the report
+     * @return one result per user, in the same order
+     */
+    @Transactional
+    public List<UserBatchResultDto> saveBatch(List<UserDto> userDtos, int firstIndex) {
+        List<UserBatchResultDto> results = new ArrayList<>(userDtos.size());
+        List<User> users = new ArrayList<>(userDtos.size());
+        List<UserDto> acceptedDtos = new ArrayList<>(userDtos.size());
+        List<UserBatchResultDto> acceptedResults = new ArrayList<>(userDtos.size());
+        Set<UserKey> existingKeys = findExistingKeys(userDtos);
+        for (int i = 0; i < userDtos.size(); i++) {
+            UserDto userDto = userDtos.get(i);
+            UserBatchResultDto result = UserBatchResultDto.builder().index(firstIndex + i).build();
+            results.add(result);
+            try {
+                if (userDto.getId() != null) {
+                    throw new ErrorServerException(121, "The id of an imported user must not be set");
+                }
+                Country country = userRules.check(userDto);
+                if (!existingKeys.add(new UserKey(userDto.getName(), userDto.getBirthday()))) {
+                    throw UserRules.userExistsException(userDto.getName(), userDto.getBirthday());
+                }
+                userDto.setCountryCode(country.getCountryCode());
+                userDto.setCountryName(country.getName());
+                users.add(userMapper.mapToUser(userDto, country));
+                acceptedDtos.add(userDto);
+                acceptedResults.add(result);
+            } catch (ErrorServerException e) {
+                result.setStatus(UserBatchResultDto.Status.REJECTED);
+                result.setErrorCode(e.getErrorCode());
+                result.setErrorMessage(e.getMessage());
+                if (e instanceof ValidationErrorException validationErrorException) {
+                    result.setViolations(validationErrorException.getViolations());
+                }
+            }
+        }
+
+        // The imported users are not put in the second level cache: a put per row slows the import down and evicts the
+        // users being read. They are cached when they are read.
+        Session session = entityManager.unwrap(Session.class);
+        CacheMode cacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.IGNORE);
         try {
-            res = userRepository.getReferenceById(id); // Throws EntityNotFoundException if id does not exist
-        } catch (EntityNotFoundException e) {
-            throw new NotFoundException(401, e.getMessage());
-        }
-        // If user id does not exist:
-        // In debug mode it throws the exception EntityNotFoundException but not in run mode and res has got the id set to id
-        // That's why we test name.
-        if (res.getName() == null) {
+            userRepository.saveAll(users);
+            // Send the last JDBC batch and release the entities: the persistence context does not grow with the imports
+            entityManager.flush();
+            entityManager.clear();
+        } finally {
+            session.setCacheMode(cacheMode);
+        }
+        if (!users.isEmpty()) {
+            userETags.usersChanged();
+        }
+        for (int i = 0; i < users.size(); i++) {
+            UserDto userDto = acceptedDtos.get(i);
+            userDto.setId(users.get(i).getId());
+            userDto.setVersion(users.get(i).getVersion());
+            acceptedResults.get(i).setStatus(UserBatchResultDto.Status.CREATED);
+            acceptedResults.get(i).setUser(userDto);
+        }
+        return results;
+    }
+
+    private Set<UserKey> findExistingKeys(List<UserDto> userDtos) {
+        Set<String> names = new HashSet<>();
+        for (UserDto userDto : userDtos) {
+            if (userDto.getName() != null) {
+                names.add(userDto.getName());
+            }
+        }
+        Set<UserKey> keys = new HashSet<>();
+        if (!names.isEmpty()) {
+            for (UserNameAndBirthday user : userRepository.findByNameIn(names)) {
+                keys.add(new UserKey(user.getName(), user.getBirthday()));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Delete a user with a single statement: it is neither loaded nor read before
+     *
+     * @throws NotFoundException 401 if the user does not exist
+     */
+    public void deleteById(Long id) {
+        if (userRepository.deleteUserById(id) == 0) {
             throw new NotFoundException(401, "User of id = " + id + " does not exist.");
         }
-        userRepository.deleteById(id);
+        userETags.usersChanged();
     }
 
-    public UserDto findById(Long id) throws NotFoundException {
-        Optional<User> res = userRepository.findById(id);
-        if (res.isEmpty()) {
-            throw new NotFoundException(400, "User with id = " + id + " does not exists");
+    /**
+     * Delete at once the users of the given ids and matching the filters of the search (name prefix, countryCode,
+     * gender and birthday range; the sort and the pages are ignored), with set based statements: the users are not
+     * loaded. The ids are deleted by chunks of BATCH_CHUNK_SIZE, in a single transaction.
+     *
+     * @param ids the ids of the users, the unknown ones are ignored. If null or empty, all the users matching the filters
+     * @return the number of users deleted
+     * @throws ErrorServerException 102 if neither ids nor filters are given
+     */
+    @Transactional
+    public int deleteAll(List<Long> ids, UserSearchCriteria criteria) throws ErrorServerException {
+        boolean byIds = ids != null && !ids.isEmpty();
+        if (!byIds && !hasFilter(criteria)) {
+            throw new ErrorServerException(102, "The users to delete must be given by their ids or by a filter");
+        }
+        Optional<Specification<User>> filter = searchFilter(criteria);
+        if (filter.isEmpty()) {
+            return 0;
+        }
+        int deleted = 0;
+        if (!byIds) {
+            deleted = userRepository.deleteMatching(filter.get());
+        } else {
+            for (int from = 0; from < ids.size(); from += BATCH_CHUNK_SIZE) {
+                List<Long> chunk = ids.subList(from, Math.min(from + BATCH_CHUNK_SIZE, ids.size()));
+                deleted += userRepository.deleteMatching(filter.get().and(UserSpecifications.idIn(chunk)));
+            }
+        }
+        if (deleted > 0) {
+            userETags.usersChanged();
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete a user only if its current version matches ifMatch, in a single statement
+     *
+     * @param ifMatch the If-Match header of the request, null if absent
+     * @throws NotFoundException 401 if the user does not exist
+     * @throws PreconditionFailedException 140 if the user has been updated since the version of ifMatch
+     */
+    @Transactional
+    public void deleteById(Long id, String ifMatch) {
+        if (ifMatch == null) {
+            deleteById(id);
+            return;
         }
-        return userMapper.mapToUserDto(res.get());
+        UserDto current = userRepository.findDtoById(id)
+                .orElseThrow(() -> new NotFoundException(401, "User of id = " + id + " does not exist."));
+        if (!userETags.matches(ifMatch, current) || userRepository.deleteByIdAndVersion(id, current.getVersion()) == 0) {
+            throw preconditionFailedException(id);
+        }
+        userETags.usersChanged();
     }
 
-    public UserDto findByNameAndBirthday(String name, Date birthday) {
+    /**
+     * Return a user by its id. Unlike the lists, a single user is read as an entity: it is served by the second level
+     * cache without any query once read or written.
+     *
+     * @throws NotFoundException 400 if the user does not exist
+     */
+    @Transactional(readOnly = true)
+    public UserDto findById(Long id) throws NotFoundException {
+        return userRepository.findById(id)
+                .map(userMapper::mapToUserDto)
+                .orElseThrow(() -> new NotFoundException(400, "User with id = " + id + " does not exists"));
+    }
+
+    private static PreconditionFailedException preconditionFailedException(Long id) {
+        return new PreconditionFailedException(140, "User with id = " + id + " does not match If-Match: it has been "
+                + "updated or deleted since");
+    }
+
+    @Transactional(readOnly = true)
+    public UserDto findByNameAndBirthday(String name, LocalDate birthday) {
         List<User> ret = userRepository.findByNameAndBirthday(name, birthday);
         return ret.isEmpty() ? null : userMapper.mapToUserDto(ret.get(0));
     }
 
-    private long countYears(java.sql.Date date) {
-        if (date==null) {
-            return 0L;
-        }
-        java.util.Date now = new java.util.Date();
-        long diffInMillis = Math.abs(now.getTime() - date.getTime());
-        return Math.abs(TimeUnit.DAYS.convert(diffInMillis, TimeUnit.MILLISECONDS) / 365);
+    /**
+     * The identity of a user for the duplicates
+     */
+    private record UserKey(String name, LocalDate birthday) {
     }
-
 }
@@ -0,0 +1,65 @@
+package com.gvormbrock.test.service;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.FieldViolation;
+import com.gvormbrock.test.exception.ValidationErrorException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Validate a UserDto against its constraints.
+ * The ValidatorFactory caches the constraint metadata of UserDto: it is built once, warmed up at startup and closed
+ * with the application context.
+ */
+@Component
+public class UserValidator {
+    private static final Comparator<FieldViolation> VIOLATION_ORDER =
+            Comparator.comparing(FieldViolation::field).thenComparing(FieldViolation::message);
+
+    private final ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory();
+    private final Validator validator = validatorFactory.getValidator();
+
+    @PostConstruct
+    public void warmUp() {
+        validator.getConstraintsForClass(UserDto.class);
+        validator.validate(new UserDto());
+    }
+
+    @PreDestroy
+    public void close() {
+        validatorFactory.close();
+    }
+
+    /**
+     * @return the violations sorted by field name, empty if the UserDto is valid
+     */
+    public List<FieldViolation> validate(UserDto userDto) {
+        Set<ConstraintViolation<UserDto>> violations = validator.validate(userDto);
+        if (violations.isEmpty()) {
+            return List.of();
+        }
+        return violations.stream()
+                .map(violation -> new FieldViolation(violation.getPropertyPath().toString(), violation.getMessage()))
+                .sorted(VIOLATION_ORDER)
+                .toList();
+    }
+
+    /**
+     * @throws ValidationErrorException listing all the violations if the UserDto is not valid
+     */
+    public void check(UserDto userDto) throws ValidationErrorException {
+        List<FieldViolation> violations = validate(userDto);
+        if (!violations.isEmpty()) {
+            throw new ValidationErrorException(101, "Validation error : " + violations.get(0).message(), violations);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.gvormbrock.test.service;
+
+import com.gvormbrock.test.dto.UserWriteStatusDto;
+import com.gvormbrock.test.exception.ErrorServerException;
+import com.gvormbrock.test.exception.ServiceUnavailableException;
+import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.repository.UserBatchWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Opt-in write-behind mode of the user creation (app.write-behind.enabled=true): the checked users are given an id and
+ * queued in a bounded ring buffer, then a single writer thread inserts them in JDBC batches of at most
+ * app.write-behind.batch-size users, a user waiting at most app.write-behind.max-delay before its batch is sent.
+ * When the queue is full the users are rejected at once (ServiceUnavailableException) instead of making the requests
+ * wait. On shutdown, the queue is flushed after the web server has stopped.
+ * The metrics users.write-behind.queue.depth, users.write-behind.commit (transaction of a batch) and
+ * users.write-behind.latency (from the queuing of a user to its commit) are given by /actuator/metrics.
+ */
+@Service
+@ConditionalOnProperty(name = "app.write-behind.enabled", havingValue = "true")
+@Slf4j
+public class UserWriteBehind implements SmartLifecycle {
+    // Failures kept for GET /users/{id}/status, the oldest are forgotten
+    private static final int MAX_FAILURES = 10_000;
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final UserBatchWriter userBatchWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache entityCache;
+    private final UserETags userETags;
+    private final BoundedRingBuffer<PendingUser> queue;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Duration shutdownTimeout;
+    private final Timer commitTimer;
+    private final Timer latencyTimer;
+
+    private final Map<Long, PendingUser> pendingUsers = new ConcurrentHashMap<>();
+    private final Set<UserKey> pendingKeys = ConcurrentHashMap.newKeySet();
+    private final Map<Long, ErrorServerException> failures = Collections.synchronizedMap(
+            new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ErrorServerException> eldest) {
+                    return size() > MAX_FAILURES;
+                }
+            });
+    // The requests being queued: the writer stops once they are all in the queue
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private volatile boolean stopping;
+    private volatile Thread writer;
+
+    public UserWriteBehind(UserBatchWriter userBatchWriter, TransactionTemplate transactionTemplate,
+                           EntityManagerFactory entityManagerFactory, UserETags userETags, MeterRegistry meterRegistry,
+                           @Value("${app.write-behind.capacity:8192}") int capacity,
+                           @Value("${app.write-behind.batch-size:50}") int batchSize,
+                           @Value("${app.write-behind.max-delay:20ms}") Duration maxDelay,
+                           @Value("${app.write-behind.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        this.userBatchWriter = userBatchWriter;
+        this.transactionTemplate = transactionTemplate;
+        this.entityCache = entityManagerFactory.getCache();
+        this.userETags = userETags;
+        this.queue = new BoundedRingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.shutdownTimeout = shutdownTimeout;
+        Gauge.builder("users.write-behind.queue.depth", queue, BoundedRingBuffer::size)
+                .description("Users waiting to be inserted")
+                .register(meterRegistry);
+        this.commitTimer = Timer.builder("users.write-behind.commit")
+                .description("Transaction of a batch of users")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.latencyTimer = Timer.builder("users.write-behind.latency")
+                .description("Time between the queuing of a user and its commit")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Give an id to the user and queue it
+     *
+     * @return the id of the user
+     * @throws ErrorServerException 120 if a user of the same name and birthday is already queued
+     * @throws ServiceUnavailableException 130 if the queue is full or the application is stopping
+     */
+    public long enqueue(User user) {
+        producers.incrementAndGet();
+        try {
+            if (stopping) {
+                throw new ServiceUnavailableException(130, "The application is stopping", RETRY_AFTER_SECONDS);
+            }
+            if (queue.size() >= queue.capacity()) {
+                throw queueFullException();
+            }
+            UserKey key = new UserKey(user.getName(), user.getBirthday());
+            if (!pendingKeys.add(key)) {
+                throw UserRules.userExistsException(user.getName(), user.getBirthday());
+            }
+            user.setId(userBatchWriter.reserveId());
+            PendingUser pendingUser = new PendingUser(user, key, System.nanoTime());
+            pendingUsers.put(user.getId(), pendingUser);
+            if (!queue.offer(pendingUser)) {
+                pendingUsers.remove(user.getId());
+                pendingKeys.remove(key);
+                throw queueFullException();
+            }
+            if (queue.size() >= batchSize) {
+                LockSupport.unpark(writer);
+            }
+            return user.getId();
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the status of a queued or failed user, null if the user is unknown here (created or never queued)
+     */
+    public UserWriteStatusDto findStatus(long id) {
+        if (pendingUsers.containsKey(id)) {
+            return UserWriteStatusDto.builder().id(id).status(UserWriteStatusDto.Status.PENDING).build();
+        }
+        ErrorServerException failure = failures.get(id);
+        if (failure != null) {
+            return UserWriteStatusDto.builder()
+                    .id(id)
+                    .status(UserWriteStatusDto.Status.FAILED)
+                    .errorCode(failure.getErrorCode())
+                    .errorMessage(failure.getMessage())
+                    .build();
+        }
+        return null;
+    }
+
+    @Override
+    public void start() {
+        stopping = false;
+        writer = Thread.ofPlatform().name("user-write-behind").daemon(true).start(this::run);
+    }
+
+    /**
+     * Flush the queue: the users queued before are all written, the new ones are rejected
+     */
+    @Override
+    public void stop() {
+        Thread current = writer;
+        stopping = true;
+        if (current == null) {
+            return;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join(shutdownTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (current.isAlive()) {
+            log.warn("{} users of the write-behind queue are not written after {}", queue.size(), shutdownTimeout);
+        }
+        writer = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return writer != null;
+    }
+
+    /**
+     * Stopped after the web server (stopped in the phases above SmartLifecycle.DEFAULT_PHASE - 1024): no request
+     * queues a user anymore
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2048;
+    }
+
+    private void run() {
+        List<PendingUser> batch = new ArrayList<>(batchSize);
+        while (true) {
+            queue.drainTo(batch, batchSize - batch.size());
+            boolean flush = stopping || (!batch.isEmpty() && System.nanoTime() - batch.get(0).queuedAt() >= maxDelayNanos);
+            if (batch.size() == batchSize || (flush && !batch.isEmpty())) {
+                write(batch);
+                batch.clear();
+            } else if (stopping && producers.get() == 0 && queue.isEmpty()) {
+                return;
+            } else if (!stopping) {
+                long delay = batch.isEmpty() ? maxDelayNanos : maxDelayNanos - (System.nanoTime() - batch.get(0).queuedAt());
+                LockSupport.parkNanos(this, Math.max(delay, 0));
+            } else {
+                // A request is still queuing its user
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void write(List<PendingUser> batch) {
+        List<User> users = new ArrayList<>(batch.size());
+        for (PendingUser pendingUser : batch) {
+            users.add(pendingUser.user());
+        }
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> userBatchWriter.insertAll(users));
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batch.forEach(this::written);
+        } catch (DataIntegrityViolationException e) {
+            // A user has been created by another request since its check: the users are written one by one to find it
+            batch.forEach(this::writeOne);
+        } catch (RuntimeException e) {
+            log.error("A batch of {} users can not be written", batch.size(), e);
+            batch.forEach(pendingUser -> failed(pendingUser, writeFailedException(e)));
+        }
+    }
+
+    private void writeOne(PendingUser pendingUser) {
+        User user = pendingUser.user();
+        try {
+            transactionTemplate.executeWithoutResult(status -> userBatchWriter.insertAll(List.of(user)));
+            written(pendingUser);
+        } catch (DataIntegrityViolationException e) {
+            failed(pendingUser, UserRules.userExistsException(user.getName(), user.getBirthday()));
+        } catch (RuntimeException e) {
+            log.error("The user {} can not be written", user.getId(), e);
+            failed(pendingUser, writeFailedException(e));
+        }
+    }
+
+    private void written(PendingUser pendingUser) {
+        // The rows are inserted without Hibernate: no cached entity must hide them
+        entityCache.evict(User.class, pendingUser.user().getId());
+        userETags.usersChanged();
+        latencyTimer.record(System.nanoTime() - pendingUser.queuedAt(), TimeUnit.NANOSECONDS);
+        pendingUsers.remove(pendingUser.user().getId());
+        pendingKeys.remove(pendingUser.key());
+    }
+
+    private void failed(PendingUser pendingUser, ErrorServerException failure) {
+        // Recorded before the user leaves the pending ones: the status is never unknown in between
+        failures.put(pendingUser.user().getId(), failure);
+        pendingUsers.remove(pendingUser.user().getId());
+        pendingKeys.remove(pendingUser.key());
+    }
+
+    private static ServiceUnavailableException queueFullException() {
+        return new ServiceUnavailableException(130, "Too many users are waiting to be created", RETRY_AFTER_SECONDS);
+    }
+
+    private static ErrorServerException writeFailedException(RuntimeException e) {
+        return new ErrorServerException(131, "The user could not be written: " + e.getMessage());
+    }
+
+    private record UserKey(String name, LocalDate birthday) {
+    }
+
+    private record PendingUser(User user, UserKey key, long queuedAt) {
+    }
+}
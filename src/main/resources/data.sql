@@ -2,5 +2,7 @@ insert into country(id, name,country_code) values(1, 'France','fr');
 insert into country(id, name,country_code) values(2, 'England','en');
 insert into country(id, name,country_code) values(3, 'Germany','de');
 insert into country(id, name,country_code) values(4, 'Spain','es');
+-- The ids above are set by hand: move the id generator past them
+alter sequence country_seq restart with 1000;
 --insert into user_table(id, gender,name,birthday,phone_number,country_of_residence_id) values (1, 'Male','VormbrockTest','1971-10-20','+33695299192',1);
 --insert into user_table(id, gender,name,birthday,country_of_residence_id) values (2, 'Female','VormbrockTest','1971-10-21',1);
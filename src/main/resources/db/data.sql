@@ -0,0 +1,6 @@
+-- Reference data of the persistent profile, merged at each startup: the existing rows are updated, never duplicated
+merge into country (id, name, country_code) key (id) values
+    (1, 'France', 'fr'),
+    (2, 'England', 'en'),
+    (3, 'Germany', 'de'),
+    (4, 'Spain', 'es');
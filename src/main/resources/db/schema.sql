@@ -0,0 +1,37 @@
+-- Schema of the persistent profile, checked against the entities by Hibernate (ddl-auto=validate).
+-- Every statement is idempotent: the script runs at each startup on the existing database file.
+
+-- The ids are taken by blocks of 50 (allocationSize of the generators). The countries inserted by data.sql have the
+-- ids 1 to 4: the generated ones start after them.
+create sequence if not exists country_seq start with 1000 increment by 50;
+create sequence if not exists user_table_seq start with 1 increment by 50;
+
+create table if not exists country (
+    id bigint not null,
+    country_code varchar(2) not null,
+    name varchar(100) not null,
+    constraint PK_COUNTRY primary key (id)
+);
+create unique index if not exists UK_COUNTRY_CODE on country (country_code);
+
+-- The rows are stored in the order of the primary key: the latest users are on the last pages
+create table if not exists user_table (
+    id bigint not null,
+    birthday date not null,
+    gender varchar(6),
+    name varchar(50) not null,
+    phone_number varchar(50),
+    country_of_residence_id bigint not null,
+    version bigint default 0 not null,
+    constraint PK_USER_TABLE primary key (id),
+    -- Served by IDX_USER_COUNTRY_GENDER, else indexed by H2 (FK_USER_COUNTRY_INDEX_*)
+    constraint FK_USER_COUNTRY foreign key (country_of_residence_id) references country (id)
+);
+-- The optimistic locking of User, added to the databases created before it
+alter table user_table add column if not exists version bigint default 0 not null;
+-- The duplicate checks (existsByNameAndBirthday, findByNameIn), the unique constraint of User and the name prefix of
+-- the search
+create unique index if not exists UK_USER_NAME_BIRTHDAY on user_table (name, birthday);
+-- The other filters of the search (see UserSpecifications)
+create index if not exists IDX_USER_BIRTHDAY on user_table (birthday);
+create index if not exists IDX_USER_COUNTRY_GENDER on user_table (country_of_residence_id, gender);
@@ -0,0 +1,8 @@
+-- The index of the keys (name, birthday) of the users of all the shards, each key on the shard of its hash (see
+-- UserKeyIndex), run on every shard after schema.sql. Idempotent as schema.sql.
+create table if not exists user_key (
+    name varchar(50) not null,
+    birthday date not null,
+    user_id bigint not null,
+    constraint PK_USER_KEY primary key (name, birthday)
+);
@@ -0,0 +1,150 @@
+package com.gvormbrock.test;
+
+import com.gvormbrock.test.admission.ConcurrencyLimiter;
+import com.gvormbrock.test.admission.RateLimiter;
+import com.gvormbrock.test.dto.UserDto;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.admission.enabled=true", "app.admission.reads.rate=1", "app.admission.reads.burst=3"})
+class AdmissionControlTests {
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void testRequestsOverTheRateOfTheClientAreShed() {
+        // The unknown user is a 404, the rejected request is not even looked for
+        List<HttpStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            statuses.add(HttpStatus.valueOf(get("/users/" + Long.MAX_VALUE, "client-a").getStatusCode().value()));
+        }
+        Assertions.assertEquals(List.of(HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND, HttpStatus.TOO_MANY_REQUESTS), statuses);
+        ResponseEntity<String> rejected = get("/users/" + Long.MAX_VALUE, "client-a");
+        Assertions.assertEquals("1", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        Assertions.assertTrue(rejected.getBody().contains("\"errorCode\":150"));
+
+        // Another endpoint and another client have their own buckets
+        Assertions.assertEquals(HttpStatus.OK, get("/users", "client-a").getStatusCode());
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, get("/users/" + Long.MAX_VALUE, "client-b").getStatusCode());
+    }
+
+    @Test
+    void testWritesAreAdmitted() {
+        UserDto user = UserDto.builder().name("AdmissionTest").birthday(LocalDate.parse("1990-01-01")).countryCode("fr").build();
+        ResponseEntity<UserDto> response = restTemplate.postForEntity("/users", user, UserDto.class);
+        Assertions.assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        restTemplate.delete("/users/" + response.getBody().getId());
+    }
+
+    @Test
+    void testRateLimiterRefills() {
+        AtomicLong now = new AtomicLong();
+        // 10 per second: a token each 100 ms, 2 at once
+        RateLimiter limiter = new RateLimiter(10, 2, 1, now::get);
+        Assertions.assertEquals(0, limiter.tryAcquire("a"));
+        Assertions.assertEquals(0, limiter.tryAcquire("a"));
+        Assertions.assertEquals(100_000_000L, limiter.tryAcquire("a"));
+        Assertions.assertEquals(0, limiter.tryAcquire("b"));
+
+        now.addAndGet(100_000_000L);
+        Assertions.assertEquals(0, limiter.tryAcquire("a"));
+        Assertions.assertEquals(100_000_000L, limiter.tryAcquire("a"));
+
+        // Once full again, the buckets are forgotten when there are too many of them
+        now.addAndGet(2_000_000_000L);
+        Assertions.assertEquals(0, limiter.tryAcquire("c"));
+        Assertions.assertEquals(1, limiter.size());
+    }
+
+    @Test
+    void testRateLimiterWithConcurrentClients() throws InterruptedException {
+        // Without refill during the test: exactly burst requests are allowed, whatever the contention
+        RateLimiter limiter = new RateLimiter(0.001, 1000, 10, System::nanoTime);
+        AtomicInteger allowed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire("key") == 0) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(1000, allowed.get());
+    }
+
+    @Test
+    void testConcurrencyLimitAdaptsToLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 3, 1_000_000L, 0.5, () -> 0L);
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertFalse(limiter.tryAcquire());
+        Assertions.assertEquals(2, limiter.getInFlight());
+
+        // Fast: additive increase, by 1 / limit each
+        limiter.release(1000, false);
+        limiter.release(1000, false);
+        Assertions.assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+            limiter.release(1000, false);
+        }
+        Assertions.assertEquals(3, limiter.getLimit());
+
+        // Slow or failed: multiplicative decrease, down to the minimum
+        Assertions.assertTrue(limiter.tryAcquire());
+        limiter.release(2_000_000L, false);
+        Assertions.assertEquals(1, limiter.getLimit());
+        Assertions.assertTrue(limiter.tryAcquire());
+        limiter.release(1000, true);
+        Assertions.assertEquals(1, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testConcurrencyLimitDecreasesOncePerRoundTrip() {
+        AtomicLong now = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 8, 1_000_000L, 0.5, now::get);
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+        }
+        // A burst of slow requests started at the same time: a single decrease
+        now.addAndGet(2_000_000L);
+        for (int i = 0; i < 4; i++) {
+            limiter.release(2_000_000L, false);
+        }
+        Assertions.assertEquals(4, limiter.getLimit());
+
+        // A slow request started after the decrease decreases it again
+        now.addAndGet(1000);
+        Assertions.assertTrue(limiter.tryAcquire());
+        now.addAndGet(2_000_000L);
+        limiter.release(2_000_000L, true);
+        Assertions.assertEquals(2, limiter.getLimit());
+    }
+
+    private ResponseEntity<String> get(String path, String client) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Client-Id", client);
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+}
@@ -0,0 +1,61 @@
+package com.gvormbrock.test;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.CountryService;
+import com.gvormbrock.test.service.UserService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * The persistent profile on a database file of a temporary directory, started twice as after a restart
+ */
+class PersistentTests {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testUsersAreKeptAfterRestart() {
+        long id;
+        try (ConfigurableApplicationContext context = start()) {
+            // The explicit schema matches the entities (ddl-auto=validate) and the countries are warmed up
+            Assertions.assertTrue(context.getBean(CountryService.class).findByCountryCode("fr").isPresent());
+            id = context.getBean(UserService.class).save(UserDto.builder()
+                    .name("PersistentTest")
+                    .birthday(LocalDate.parse("1980-05-01"))
+                    .countryCode("fr").build(), true).getId();
+        }
+        Assertions.assertTrue(Files.exists(directory.resolve("users.mv.db")));
+
+        try (ConfigurableApplicationContext context = start()) {
+            Assertions.assertEquals("PersistentTest", context.getBean(UserService.class).findById(id).getName());
+            // The reference data is merged again, not duplicated
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            Assertions.assertEquals(4, jdbcTemplate.queryForObject("select count(*) from country", Integer.class));
+            // The settings of the URL are applied
+            Assertions.assertEquals("4096", jdbcTemplate.queryForObject(
+                    "select setting_value from information_schema.settings where setting_name = 'CACHE_SIZE'", String.class));
+            // The generated ids do not restart from the beginning
+            long nextId = context.getBean(UserService.class).save(UserDto.builder()
+                    .name("PersistentTest")
+                    .birthday(LocalDate.parse("1980-05-02"))
+                    .countryCode("fr").build(), true).getId();
+            Assertions.assertTrue(nextId > id);
+        }
+    }
+
+    private ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(TestApplication.class)
+                .profiles("persistent")
+                .web(WebApplicationType.NONE)
+                .run("--app.persistent.directory=" + directory.toAbsolutePath(), "--app.persistent.cache-size-kb=4096");
+    }
+}
@@ -0,0 +1,154 @@
+package com.gvormbrock.test;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.ReactiveUserService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+class ReactiveUserTests {
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveUserService reactiveUserService;
+
+    @Test
+    void testCreateFindDeleteUser() {
+        UserDto user = createUser("ReactiveTest", "2000-10-19");
+        Assertions.assertEquals("France", user.getCountryName());
+
+        webTestClient.get().uri("/users/" + user.getId()).accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("ReactiveTest")
+                .jsonPath("$.birthday").isEqualTo("2000-10-19")
+                .jsonPath("$.countryCode").isEqualTo("fr");
+        StepVerifier.create(reactiveUserService.findById(user.getId()).map(UserDto::getVersion))
+                .expectNext(0L)
+                .verifyComplete();
+
+        webTestClient.delete().uri("/users/" + user.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+        webTestClient.get().uri("/users/" + user.getId()).accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo(400);
+        webTestClient.delete().uri("/users/" + user.getId())
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errorCode").isEqualTo(401);
+    }
+
+    @Test
+    void testSameRulesAsUserService() {
+        UserDto user = createUser("ReactiveTest", "2000-10-20");
+        try {
+            webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"name\":\"ReactiveTest\",\"birthday\":\"2000-10-20\",\"countryName\":\"France\"}")
+                    .exchange()
+                    .expectStatus().is5xxServerError()
+                    .expectBody()
+                    .jsonPath("$.errorCode").isEqualTo(120);
+            // The unique constraint rejects the duplicate even without the existence test
+            webTestClient.put().uri("/users?verify=false").contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"name\":\"ReactiveTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\"}")
+                    .exchange()
+                    .expectStatus().is5xxServerError()
+                    .expectBody()
+                    .jsonPath("$.errorCode").isEqualTo(120);
+            webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"name\":\"ReactiveTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"en\"}")
+                    .exchange()
+                    .expectBody()
+                    .jsonPath("$.errorCode").isEqualTo(110);
+            webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"gender\":\"Robot\",\"name\":\"Re\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\"}")
+                    .exchange()
+                    .expectBody()
+                    .jsonPath("$.errorCode").isEqualTo(101)
+                    .jsonPath("$.additionalData.violations.length()").isEqualTo(2);
+
+            // Update of the existing user
+            webTestClient.put().uri("/users?verify=false").contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"id\":" + user.getId() + ",\"gender\":\"Female\",\"name\":\"ReactiveTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\"}")
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody()
+                    .jsonPath("$.id").isEqualTo(user.getId());
+            StepVerifier.create(reactiveUserService.findById(user.getId()).map(UserDto::getGender))
+                    .expectNext("Female")
+                    .verifyComplete();
+            // The version of JPA, of the ETags of the users, is incremented
+            StepVerifier.create(reactiveUserService.findById(user.getId()).map(UserDto::getVersion))
+                    .expectNext(1L)
+                    .verifyComplete();
+        } finally {
+            reactiveUserService.deleteById(user.getId()).block();
+        }
+    }
+
+    @Test
+    void testStreamAllUsersByPages() {
+        List<Long> ids = new ArrayList<>();
+        LocalDate birthday = LocalDate.parse("1980-01-01");
+        try {
+            Flux.range(0, ReactiveUserService.STREAM_PAGE_SIZE + 1)
+                    .concatMap(i -> reactiveUserService.save(UserDto.builder()
+                            .name("ReactiveStreamTest")
+                            .birthday(birthday.plusDays(i))
+                            .countryCode("fr")
+                            .build(), true))
+                    .doOnNext(user -> ids.add(user.getId()))
+                    .blockLast();
+
+            // One user requested at a time: the pages are read on demand
+            StepVerifier.create(reactiveUserService.streamAll()
+                            .filter(user -> user.getName().equals("ReactiveStreamTest"))
+                            .map(UserDto::getId), 1)
+                    .expectNext(ids.get(0))
+                    .thenRequest(ids.size() - 1)
+                    .expectNextSequence(ids.subList(1, ids.size()))
+                    .verifyComplete();
+
+            webTestClient.get().uri("/users?limit=2&after=" + ids.get(0)).accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.length()").isEqualTo(2)
+                    .jsonPath("$[0].id").isEqualTo(ids.get(1));
+            webTestClient.get().uri("/users").accept(MediaType.APPLICATION_NDJSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON);
+        } finally {
+            Flux.fromIterable(ids).concatMap(reactiveUserService::deleteById).blockLast();
+        }
+    }
+
+    private UserDto createUser(String name, String birthday) {
+        return webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"name\":\"" + name + "\",\"birthday\":\"" + birthday + "\",\"countryName\":\"France\"}")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(UserDto.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
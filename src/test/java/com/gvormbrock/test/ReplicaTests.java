@@ -0,0 +1,156 @@
+package com.gvormbrock.test;
+
+import com.gvormbrock.test.config.ReplicaRoutingDataSource;
+import com.gvormbrock.test.config.ReplicaSynchronizer;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.NotFoundException;
+import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.service.UserService;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+
+// Synchronized by the tests only: the replica is late until they call synchronize
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.replica.enabled=true", "app.replica.sync-interval=1h", "app.replica.max-lag=1h",
+                "app.replica.url=jdbc:h2:mem:replica-tests;DB_CLOSE_DELAY=-1"})
+class ReplicaTests {
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    private ReplicaSynchronizer replicaSynchronizer;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private HikariDataSource primaryDataSource;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void testReadsGoToTheReplica() {
+        // Written to the primary without any client: only visible on the replica after the next copy
+        JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+        long id = 90_000_000L;
+        primary.update("insert into user_table(id, gender, name, birthday, country_of_residence_id, version) "
+                + "values (?, 'Male', 'ReplicaTest', ?, 1, 0)", id, LocalDate.parse("1980-01-01"));
+        try {
+            Assertions.assertThrows(NotFoundException.class, () -> userService.findById(id));
+            replicaSynchronizer.synchronize();
+            Assertions.assertEquals("ReplicaTest", userService.findById(id).getName());
+        } finally {
+            primary.update("delete from user_table where id = ?", id);
+            // Deleted without the entity manager: the user read by findById is still in the second level cache
+            entityManagerFactory.getCache().evict(User.class, id);
+            replicaSynchronizer.synchronize();
+        }
+        Assertions.assertThrows(NotFoundException.class, () -> userService.findById(id));
+    }
+
+    @Test
+    void testReadYourWrites() {
+        replicaSynchronizer.synchronize();
+        Assertions.assertTrue(routingDataSource.isReplicaCurrentFor(null));
+        UserDto user = userService.save(UserDto.builder().name("ReplicaReadYourWrites")
+                .birthday(LocalDate.parse("1980-01-02")).countryCode("fr").build(), true);
+        try {
+            // Read from the primary until the replica has the user
+            Assertions.assertFalse(routingDataSource.isReplicaCurrentFor(null));
+            Assertions.assertEquals("ReplicaReadYourWrites", userService.findById(user.getId()).getName());
+            Assertions.assertNotNull(userService.findByNameAndBirthday("ReplicaReadYourWrites", LocalDate.parse("1980-01-02")));
+            replicaSynchronizer.synchronize();
+            Assertions.assertTrue(routingDataSource.isReplicaCurrentFor(null));
+            Assertions.assertEquals("ReplicaReadYourWrites", userService.findById(user.getId()).getName());
+        } finally {
+            userService.deleteById(user.getId());
+        }
+    }
+
+    @Test
+    void testReadYourWritesByClient() {
+        replicaSynchronizer.synchronize();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Client-Id", "replica-writer");
+        ResponseEntity<UserDto> created = restTemplate.exchange("/users", HttpMethod.POST, new HttpEntity<>(
+                UserDto.builder().name("ReplicaClient").birthday(LocalDate.parse("1980-01-03")).countryCode("fr").build(),
+                headers), UserDto.class);
+        Assertions.assertEquals(HttpStatus.CREATED, created.getStatusCode());
+        String path = "/users/" + created.getBody().getId();
+        try {
+            // The writer reads its user from the primary, the other clients read the replica which does not have it yet
+            Assertions.assertFalse(routingDataSource.isReplicaCurrentFor("replica-writer"));
+            Assertions.assertTrue(routingDataSource.isReplicaCurrentFor("replica-reader"));
+            Assertions.assertEquals(HttpStatus.OK,
+                    restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class).getStatusCode());
+            // Else served by the second level cache, which has the writes of the primary
+            entityManagerFactory.getCache().evict(User.class, created.getBody().getId());
+            HttpHeaders reader = new HttpHeaders();
+            reader.set("X-Client-Id", "replica-reader");
+            Assertions.assertEquals(HttpStatus.NOT_FOUND,
+                    restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(reader), String.class).getStatusCode());
+        } finally {
+            restTemplate.exchange(path, HttpMethod.DELETE, new HttpEntity<>(headers), Void.class);
+            replicaSynchronizer.synchronize();
+        }
+    }
+
+    @Test
+    void testListETagOfTheReplica() {
+        replicaSynchronizer.synchronize();
+        HttpHeaders reader = new HttpHeaders();
+        reader.set("X-Client-Id", "replica-list-reader");
+        String eTag = restTemplate.exchange("/users", HttpMethod.GET, new HttpEntity<>(reader), String.class)
+                .getHeaders().getETag();
+        Assertions.assertNotNull(eTag);
+        HttpHeaders writer = new HttpHeaders();
+        writer.set("X-Client-Id", "replica-list-writer");
+        ResponseEntity<UserDto> created = restTemplate.exchange("/users", HttpMethod.POST, new HttpEntity<>(
+                UserDto.builder().name("ReplicaList").birthday(LocalDate.parse("1980-01-04")).countryCode("fr").build(),
+                writer), UserDto.class);
+        Assertions.assertEquals(HttpStatus.CREATED, created.getStatusCode());
+        String page = "/users?after=" + (created.getBody().getId() - 1);
+        try {
+            // The replica does not have the user yet: its list has not changed
+            reader.setIfNoneMatch(eTag);
+            Assertions.assertEquals(HttpStatus.NOT_MODIFIED,
+                    restTemplate.exchange(page, HttpMethod.GET, new HttpEntity<>(reader), String.class).getStatusCode());
+            // The writer reads the primary, which has it
+            writer.setIfNoneMatch(eTag);
+            ResponseEntity<String> fromPrimary = restTemplate.exchange(page, HttpMethod.GET, new HttpEntity<>(writer),
+                    String.class);
+            Assertions.assertEquals(HttpStatus.OK, fromPrimary.getStatusCode());
+            Assertions.assertTrue(fromPrimary.getBody().contains("ReplicaList"));
+
+            replicaSynchronizer.synchronize();
+            ResponseEntity<String> fromReplica = restTemplate.exchange(page, HttpMethod.GET, new HttpEntity<>(reader),
+                    String.class);
+            Assertions.assertEquals(HttpStatus.OK, fromReplica.getStatusCode());
+            Assertions.assertTrue(fromReplica.getBody().contains("ReplicaList"));
+            Assertions.assertNotEquals(eTag, fromReplica.getHeaders().getETag());
+        } finally {
+            restTemplate.exchange("/users/" + created.getBody().getId(), HttpMethod.DELETE, new HttpEntity<>(writer),
+                    Void.class);
+            replicaSynchronizer.synchronize();
+        }
+    }
+}
@@ -1,22 +1,27 @@
 package com.gvormbrock.test;
 
+import com.gvormbrock.test.dto.UserDto;
 import com.gvormbrock.test.model.Country;
 import com.gvormbrock.test.model.User;
 import com.gvormbrock.test.repository.CountryRepository;
 import com.gvormbrock.test.repository.UserRepository;
+import com.gvormbrock.test.repository.UserSpecifications;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.AutoConfigureJson;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 
-import java.time.Instant;
-import java.sql.Date;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 @DataJpaTest
+@AutoConfigureJson // The controllers are also scanned by TestApplication
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class RepositoryTests {
     @Autowired
@@ -25,18 +30,16 @@ class RepositoryTests {
     @Autowired
     private CountryRepository countryRepository;
 
-    private Date birthdayDate1;
-    private Date birthdayDate2;
+    private LocalDate birthdayDate1;
+    private LocalDate birthdayDate2;
 
     private final Country countryFr = new Country();
 
 
     @BeforeAll
     public void setup() {
-        Instant instant1 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-20", Instant::from);
-        birthdayDate1 = new Date(instant1.getEpochSecond() * 1000L);
-        Instant instant2 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-21", Instant::from);
-        birthdayDate2 = new Date(instant2.getEpochSecond() * 1000L);
+        birthdayDate1 = LocalDate.parse("1971-10-20");
+        birthdayDate2 = LocalDate.parse("1971-10-21");
         countryFr.setCountryCode("fr");
         countryFr.setName("France");
         countryFr.setId(1L);
@@ -84,6 +87,55 @@ class RepositoryTests {
         Assertions.assertEquals( birthdayDate2, result.get(0).getBirthday());
     }
 
+    @Test
+    void testUserExistsByNameAndBirthday() {
+        Assertions.assertTrue(userRepository.existsByNameAndBirthday("UserRepositoryTest", birthdayDate1));
+        Assertions.assertFalse(userRepository.existsByNameAndBirthday("UserRepositoryTest", LocalDate.parse("1900-01-01")));
+    }
+
+    @Test
+    void testUserFindDtoById() {
+        User user = userRepository.findByNameAndBirthday("UserRepositoryTest", birthdayDate1).get(0);
+        Optional<UserDto> result = userRepository.findDtoById(user.getId());
+        Assertions.assertTrue(result.isPresent());
+        Assertions.assertEquals("UserRepositoryTest", result.get().getName());
+        Assertions.assertEquals(birthdayDate1, result.get().getBirthday());
+        Assertions.assertEquals("France", result.get().getCountryName());
+        Assertions.assertEquals("fr", result.get().getCountryCode());
+        Assertions.assertTrue(userRepository.findDtoById(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void testUserSearch() {
+        Country country = countryRepository.findByCountryCode("fr").get();
+        User user = new User();
+        user.setName("UserRepositoryTest");
+        user.setBirthday(birthdayDate2);
+        user.setCountryOfResidence(country);
+        userRepository.save(user);
+
+        Specification<User> filter = UserSpecifications.nameStartsWith("UserRepository")
+                .and(UserSpecifications.livesIn(country))
+                .and(UserSpecifications.bornFrom(birthdayDate1))
+                .and(UserSpecifications.bornTo(birthdayDate2));
+        Sort order = Sort.by(Sort.Direction.DESC, "birthday", "id");
+        List<UserDto> result = userRepository.search(filter, order, 10);
+        Assertions.assertEquals(2, result.size());
+        Assertions.assertEquals(birthdayDate2, result.get(0).getBirthday());
+        Assertions.assertEquals("fr", result.get(0).getCountryCode());
+        Assertions.assertEquals(1, userRepository.search(filter, order, 1).size());
+        // The keyset goes on after the last user
+        UserDto last = result.get(0);
+        result = userRepository.search(filter.and(UserSpecifications.after("birthday", last.getBirthday(), last.getId(), true)), order, 10);
+        Assertions.assertEquals(1, result.size());
+        Assertions.assertEquals(birthdayDate1, result.get(0).getBirthday());
+
+        Assertions.assertEquals(2, userRepository.countUpTo(filter, 10));
+        Assertions.assertEquals(2, userRepository.countUpTo(filter, 1));
+        // The wildcards of LIKE are searched as such
+        Assertions.assertTrue(userRepository.search(UserSpecifications.nameStartsWith("User%"), order, 10).isEmpty());
+    }
+
     @Test
     void testUserDelete() {
         // Create user
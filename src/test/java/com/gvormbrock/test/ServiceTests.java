@@ -1,31 +1,53 @@
 package com.gvormbrock.test;
 
+import com.gvormbrock.test.dto.UserBatchResultDto;
 import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserSearchCriteria;
+import com.gvormbrock.test.dto.UserSearchResultDto;
 import com.gvormbrock.test.exception.ErrorServerException;
 import com.gvormbrock.test.exception.NotFoundException;
+import com.gvormbrock.test.mapper.UserMapper;
 import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.service.CountryService;
+import com.gvormbrock.test.service.Today;
+import com.gvormbrock.test.service.UserETags;
 import com.gvormbrock.test.service.UserService;
-import jakarta.persistence.EntityNotFoundException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.AutoConfigureJson;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.MediaType;
 
+import java.time.Clock;
 import java.time.Instant;
-import java.sql.Date;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 
 @DataJpaTest
+@AutoConfigureJson // The controllers are also scanned by TestApplication
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class ServiceTests {
     @Autowired
     UserService userService;
 
-    private Date birthdayDate1;
-    private Date birthdayDate2;
+    @Autowired
+    CountryService countryService;
+
+    @Autowired
+    UserMapper userMapper;
+
+    @Autowired
+    UserETags userETags;
+
+    private LocalDate birthdayDate1;
+    private LocalDate birthdayDate2;
 
     private final Country countryFr = new Country();
     private final Country countryEn = new Country();
@@ -33,10 +55,8 @@ class ServiceTests {
 
     @BeforeAll
     public void setup() {
-        Instant instant1 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-20", Instant::from);
-        birthdayDate1 = new Date(instant1.getEpochSecond() * 1000L);
-        Instant instant2 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-21", Instant::from);
-        birthdayDate2 = new Date(instant2.getEpochSecond() * 1000L);
+        birthdayDate1 = LocalDate.parse("1971-10-20");
+        birthdayDate2 = LocalDate.parse("1971-10-21");
         countryFr.setCountryCode("fr");
         countryFr.setName("France");
         countryEn.setCountryCode("en");
@@ -58,14 +78,54 @@ class ServiceTests {
     @Test
     void testSaveThrowsExceptionCauseUserIsNotOfLegalAge() {
         LocalDate now = LocalDate.now();
-        Date nowSQL = Date.valueOf(now);
         UserDto user = UserDto.builder()
             .name("ServiceTest")
-            .birthday(nowSQL)
+            .birthday(now)
             .countryCode("fr").build();
         Assertions.assertThrows(ErrorServerException.class, () -> userService.save(user, true));
     }
 
+    @Test
+    void testUserMapperRoundTrip() {
+        UserDto userDto = UserDto.builder()
+                .id(7L)
+                .name("MapperTest")
+                .birthday(birthdayDate1)
+                .phoneNumber("0102030405")
+                .countryCode("en").build();
+        User user = userMapper.mapToUser(userDto, countryFr);
+        Assertions.assertEquals(7L, user.getId());
+        Assertions.assertSame(countryFr, user.getCountryOfResidence());
+        List<UserDto> ret = userMapper.mapToUserDtos(List.of(user));
+        Assertions.assertEquals(1, ret.size());
+        Assertions.assertEquals("MapperTest", ret.get(0).getName());
+        Assertions.assertEquals(birthdayDate1, ret.get(0).getBirthday());
+        Assertions.assertEquals("0102030405", ret.get(0).getPhoneNumber());
+        Assertions.assertEquals("France", ret.get(0).getCountryName());
+        Assertions.assertEquals("fr", ret.get(0).getCountryCode());
+        // Not @Profiled: the generated implementation is injected as is, without a proxy
+        Assertions.assertEquals("UserMapperImpl", userMapper.getClass().getSimpleName());
+    }
+
+    @Test
+    void testTodayYearsSince() {
+        Today today = new Today(Clock.fixed(Instant.parse("2026-02-28T12:00:00Z"), ZoneOffset.UTC));
+        Assertions.assertEquals(18, today.yearsSince(LocalDate.parse("2008-02-28")));
+        Assertions.assertEquals(17, today.yearsSince(LocalDate.parse("2008-02-29")));
+        Assertions.assertEquals(17, today.yearsSince(LocalDate.parse("2008-03-01")));
+        Assertions.assertEquals(-1, today.yearsSince(LocalDate.parse("2026-03-01")));
+    }
+
+    @Test
+    void testTodayChangesAtMidnight() {
+        MutableClock clock = new MutableClock(Instant.parse("2026-02-28T23:59:59Z"));
+        Today today = new Today(clock);
+        Assertions.assertEquals(LocalDate.parse("2026-02-28"), today.get());
+        clock.instant = Instant.parse("2026-03-01T00:00:00Z");
+        Assertions.assertEquals(LocalDate.parse("2026-03-01"), today.get());
+        Assertions.assertEquals(18, today.yearsSince(LocalDate.parse("2008-02-29")));
+    }
+
     @Test
     void testSaveThrowsExceptionCauseNoMandatoryEntityFields() {
         UserDto user = UserDto.builder()
@@ -115,6 +175,41 @@ class ServiceTests {
         Assertions.assertThrows(ErrorServerException.class, () -> userService.save(user, true));
     }
 
+    @Test
+    void testSaveBatchRejectsExistingUsers() {
+        userService.save(UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate1)
+                .countryCode("fr")
+                .build(), true);
+        List<UserBatchResultDto> results = userService.saveBatch(List.of(
+                UserDto.builder().name("ServiceTest").birthday(birthdayDate1).countryCode("fr").build(),
+                UserDto.builder().name("ServiceTest").birthday(birthdayDate2).countryCode("fr").build()), 10);
+        Assertions.assertEquals(UserBatchResultDto.Status.REJECTED, results.get(0).getStatus());
+        Assertions.assertEquals(120, results.get(0).getErrorCode());
+        Assertions.assertEquals(10, results.get(0).getIndex());
+        Assertions.assertEquals(UserBatchResultDto.Status.CREATED, results.get(1).getStatus());
+        Assertions.assertEquals(birthdayDate2, userService.findById(results.get(1).getUser().getId()).getBirthday());
+    }
+
+    @Test
+    void testSaveThrowsExceptionCauseUserExistsWithoutTest() {
+        UserDto user = UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate1)
+                .countryCode("fr")
+                .build();
+        userService.save(user, false);
+        UserDto sameUser = UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate1)
+                .countryCode("fr")
+                .build();
+        // The unique constraint on name and birthday is checked even if the existence test is skipped
+        ErrorServerException e = Assertions.assertThrows(ErrorServerException.class, () -> userService.save(sameUser, false));
+        Assertions.assertEquals(120, e.getErrorCode());
+    }
+
     @Test
     void testUpdateUser() {
         UserDto user = UserDto.builder()
@@ -140,7 +235,33 @@ class ServiceTests {
         userService.deleteById(id);
         ret = userService.findByNameAndBirthday("ServiceTest", birthdayDate1);
         Assertions.assertNull(ret);
-        Assertions.assertThrows(EntityNotFoundException.class, () -> userService.deleteById(id));
+        Assertions.assertEquals(401, Assertions.assertThrows(NotFoundException.class, () -> userService.deleteById(id)).getErrorCode());
+    }
+
+    @Test
+    void testDeleteAll() {
+        List<Long> ids = new ArrayList<>();
+        for (int day = 1; day <= 4; day++) {
+            ids.add(userService.save(UserDto.builder()
+                    .name("ServiceDeleteTest")
+                    .birthday(LocalDate.of(1980, 2, day))
+                    .gender(day % 2 == 0 ? "Female" : "Male")
+                    .countryCode("fr")
+                    .build(), true).getId());
+        }
+        UserSearchCriteria noFilter = new UserSearchCriteria();
+        Assertions.assertEquals(102, Assertions.assertThrows(ErrorServerException.class, () -> userService.deleteAll(List.of(), noFilter)).getErrorCode());
+
+        // By ids, the unknown ones are ignored
+        Assertions.assertEquals(1, userService.deleteAll(List.of(ids.get(0), Long.MAX_VALUE), noFilter));
+        // By filter
+        UserSearchCriteria females = UserSearchCriteria.builder().name("ServiceDeleteTest").gender("Female").build();
+        Assertions.assertEquals(2, userService.deleteAll(null, females));
+        // By ids and filter
+        UserSearchCriteria born = UserSearchCriteria.builder().bornFrom(LocalDate.of(1980, 2, 4)).build();
+        Assertions.assertEquals(0, userService.deleteAll(List.of(ids.get(2)), born));
+        Assertions.assertEquals(1, userService.deleteAll(List.of(ids.get(2)), noFilter));
+        Assertions.assertTrue(userService.search(UserSearchCriteria.builder().name("ServiceDeleteTest").build()).getUsers().isEmpty());
     }
 
     @Test
@@ -155,12 +276,100 @@ class ServiceTests {
                 .birthday(birthdayDate2)
                 .countryCode("fr")
                 .build();
+        // Other test classes sharing the database may have committed users
+        int before = userService.findAll(0L, UserService.MAX_PAGE_SIZE).size();
         userService.save(user1, true);
         userService.save(user2, true);
-        List<UserDto> res = userService.findAll();
+        List<UserDto> res = userService.findAll(0L, UserService.MAX_PAGE_SIZE);
         Assertions.assertNotNull(res);
         Assertions.assertFalse(res.isEmpty());
-        Assertions.assertEquals(2, res.size());
+        Assertions.assertEquals(before + 2, res.size());
+    }
+
+    @Test
+    void testListUsersKeysetPagination() {
+        UserDto user1 = userService.save(UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate1)
+                .countryCode("fr")
+                .build(), true);
+        UserDto user2 = userService.save(UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate2)
+                .countryCode("fr")
+                .build(), true);
+        List<UserDto> page = userService.findAll(user1.getId() - 1, 1);
+        Assertions.assertEquals(1, page.size());
+        Assertions.assertEquals(user1.getId(), page.get(0).getId());
+        page = userService.findAll(page.get(0).getId(), 1);
+        Assertions.assertEquals(1, page.size());
+        Assertions.assertEquals(user2.getId(), page.get(0).getId());
+        Assertions.assertTrue(userService.findAll(user2.getId(), 10).isEmpty());
+    }
+
+    @Test
+    void testSearchUsersByPages() {
+        for (int day = 1; day <= 5; day++) {
+            userService.save(UserDto.builder()
+                    .name("ServiceSearchTest")
+                    .birthday(LocalDate.of(1980, 1, day))
+                    .gender(day % 2 == 0 ? "Female" : "Male")
+                    .countryCode("fr")
+                    .build(), true);
+        }
+        UserSearchCriteria criteria = UserSearchCriteria.builder()
+                .name("ServiceSearch")
+                .countryCode("fr")
+                .gender("Male")
+                .sort("birthday")
+                .desc(true)
+                .limit(2)
+                .build();
+        UserSearchResultDto page = userService.search(criteria);
+        Assertions.assertEquals(3L, page.getEstimatedCount());
+        Assertions.assertFalse(page.getCountCapped());
+        Assertions.assertEquals(List.of(LocalDate.of(1980, 1, 5), LocalDate.of(1980, 1, 3)),
+                page.getUsers().stream().map(UserDto::getBirthday).toList());
+        Assertions.assertNotNull(page.getNextCursor());
+
+        criteria.setCursor(page.getNextCursor());
+        page = userService.search(criteria);
+        Assertions.assertEquals(List.of(LocalDate.of(1980, 1, 1)), page.getUsers().stream().map(UserDto::getBirthday).toList());
+        Assertions.assertNull(page.getNextCursor());
+        Assertions.assertNull(page.getEstimatedCount());
+
+        // Birthday range, both bounds included
+        criteria = UserSearchCriteria.builder()
+                .name("ServiceSearch")
+                .bornFrom(LocalDate.of(1980, 1, 2))
+                .bornTo(LocalDate.of(1980, 1, 4))
+                .build();
+        Assertions.assertEquals(3, userService.search(criteria).getUsers().size());
+        // No user in an unknown country
+        criteria.setCountryCode("xx");
+        Assertions.assertTrue(userService.search(criteria).getUsers().isEmpty());
+    }
+
+    @Test
+    void testSearchUsersThrowsExceptionCauseInvalidParameters() {
+        UserSearchCriteria criteria = UserSearchCriteria.builder().sort("phoneNumber").build();
+        Assertions.assertEquals(102, Assertions.assertThrows(ErrorServerException.class, () -> userService.search(criteria)).getErrorCode());
+        criteria.setSort("name");
+        criteria.setCursor("not a cursor");
+        Assertions.assertEquals(102, Assertions.assertThrows(ErrorServerException.class, () -> userService.search(criteria)).getErrorCode());
+    }
+
+    @Test
+    void testStreamAllUsers() {
+        userService.save(UserDto.builder()
+                .name("ServiceTest")
+                .birthday(birthdayDate1)
+                .countryCode("fr")
+                .build(), true);
+        List<UserDto> streamed = new ArrayList<>();
+        userService.streamAll(streamed::add);
+        Assertions.assertEquals(userService.findAll(0L, UserService.MAX_PAGE_SIZE).size(), streamed.size());
+        Assertions.assertTrue(streamed.stream().anyMatch(user -> "ServiceTest".equals(user.getName())));
     }
 
     @Test
@@ -176,9 +385,69 @@ class ServiceTests {
         Assertions.assertEquals(id, res.getId());
     }
 
+    @Test
+    void testCountryLookupsCountHitsAndMisses() {
+        long hits = countryService.getHitCount();
+        long misses = countryService.getMissCount();
+        Assertions.assertEquals("fr", countryService.findByName("fRANCE").orElseThrow().getCountryCode());
+        Assertions.assertEquals("France", countryService.findByCountryCode("fr").orElseThrow().getName());
+        Assertions.assertTrue(countryService.findByCountryCode("xx").isEmpty());
+        Assertions.assertTrue(countryService.findByName(null).isEmpty());
+        Assertions.assertEquals(hits + 2, countryService.getHitCount());
+        Assertions.assertEquals(misses + 2, countryService.getMissCount());
+    }
+
+    @Test
+    void testCountrySaveRefreshesTheLookups() {
+        Country italy = new Country();
+        italy.setName("Italy");
+        italy.setCountryCode("it");
+        Assertions.assertTrue(countryService.findByCountryCode("it").isEmpty());
+        countryService.save(italy);
+        Assertions.assertEquals("Italy", countryService.findByCountryCode("it").orElseThrow().getName());
+        Assertions.assertTrue(countryService.findByName("italy").isPresent());
+    }
+
+    @Test
+    void testUserETagIgnoresOtherCountries() {
+        UserDto user = userService.save(UserDto.builder().name("ServiceETagTest").birthday(birthdayDate1)
+                .countryCode("fr").build(), true);
+        String eTag = userETags.ofUser(userService.findById(user.getId()), MediaType.APPLICATION_JSON);
+        Country spain = new Country();
+        spain.setName("Spain");
+        spain.setCountryCode("es");
+        countryService.save(spain);
+        Assertions.assertEquals(eTag, userETags.ofUser(userService.findById(user.getId()), MediaType.APPLICATION_JSON));
+        user.setCountryName("France (renamed)");
+        Assertions.assertNotEquals(eTag, userETags.ofUser(user, MediaType.APPLICATION_JSON));
+    }
+
     @Test
     void testFindUserByIdThrowsExceptionCauseNotFound() {
         Assertions.assertThrows(NotFoundException.class, () -> userService.findById(Long.MAX_VALUE));
     }
 
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
 }
@@ -0,0 +1,246 @@
+package com.gvormbrock.test;
+
+import com.gvormbrock.test.dto.UserBatchResultDto;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserSearchCriteria;
+import com.gvormbrock.test.dto.UserSearchResultDto;
+import com.gvormbrock.test.exception.ErrorServerException;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import com.gvormbrock.test.repository.SnowflakeIdGenerator;
+import com.gvormbrock.test.repository.UserRepository;
+import com.gvormbrock.test.repository.UserShards;
+import com.gvormbrock.test.repository.UserSpecifications;
+import com.gvormbrock.test.service.CountryService;
+import com.gvormbrock.test.service.UserService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+// Three in-memory shards of their own, not shared with the other tests
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "app.sharding.urls=jdbc:h2:mem:sharding-tests-0;DB_CLOSE_DELAY=-1,"
+                + "jdbc:h2:mem:sharding-tests-1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:sharding-tests-2;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("sharded")
+class ShardingTests {
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CountryService countryService;
+
+    @Autowired
+    private UserShards shards;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void testUsersAreSpreadOverTheShards() {
+        List<Long> ids = new ArrayList<>();
+        try {
+            for (int i = 0; i < 30; i++) {
+                ids.add(userService.save(user("ShardSpread" + i, "1980-01-01"), true).getId());
+            }
+            for (long id : ids) {
+                Assertions.assertEquals(1, count(shards.shardOf(id), "select count(*) from user_table where id = " + id));
+                Assertions.assertEquals("ShardSpread", userService.findById(id).getName().substring(0, 11));
+            }
+            for (int shard = 0; shard < shards.count(); shard++) {
+                Assertions.assertTrue(count(shard, "select count(*) from user_table where name like 'ShardSpread%'") > 0);
+            }
+            Assertions.assertEquals(HttpStatus.OK, restTemplate.getForEntity("/users/" + ids.get(0), String.class).getStatusCode());
+
+            // The pages of every shard merged by id
+            List<Long> pages = new ArrayList<>();
+            List<UserDto> page = userService.findAll(0, 7);
+            while (!page.isEmpty()) {
+                page.forEach(user -> pages.add(user.getId()));
+                page = userService.findAll(page.get(page.size() - 1).getId(), 7);
+            }
+            List<Long> streamed = new ArrayList<>();
+            userService.streamAll(user -> streamed.add(user.getId()));
+            Assertions.assertEquals(ids.stream().sorted().toList(), pages.stream().filter(ids::contains).toList());
+            Assertions.assertEquals(pages, streamed);
+        } finally {
+            ids.forEach(userService::deleteById);
+        }
+        for (int shard = 0; shard < shards.count(); shard++) {
+            Assertions.assertEquals(0, count(shard, "select count(*) from user_key where name like 'ShardSpread%'"));
+        }
+    }
+
+    @Test
+    void testDuplicatesAcrossShards() {
+        UserDto user = userService.save(user("ShardDuplicate", "1980-02-01"), false);
+        // The key is on the shard of (name, birthday), whatever the shard of the user
+        Assertions.assertEquals(1, count(shards.shardOf("ShardDuplicate", LocalDate.parse("1980-02-01")),
+                "select count(*) from user_key where name = 'ShardDuplicate'"));
+        ErrorServerException exception = Assertions.assertThrows(ErrorServerException.class,
+                () -> userService.save(user("ShardDuplicate", "1980-02-01"), false));
+        Assertions.assertEquals(120, exception.getErrorCode());
+        Assertions.assertEquals(user.getId(), userService.findByNameAndBirthday("ShardDuplicate", LocalDate.parse("1980-02-01")).getId());
+
+        // A renamed user releases its previous key
+        user.setBirthday(LocalDate.parse("1980-02-02"));
+        userService.save(user, true);
+        Assertions.assertNull(userService.findByNameAndBirthday("ShardDuplicate", LocalDate.parse("1980-02-01")));
+        UserDto other = userService.save(user("ShardDuplicate", "1980-02-01"), true);
+
+        // A deleted user releases its key at once
+        userService.deleteById(user.getId());
+        UserDto again = userService.save(user("ShardDuplicate", "1980-02-02"), true);
+        userService.deleteById(other.getId());
+        userService.deleteById(again.getId());
+    }
+
+    @Test
+    void testAbandonedKeyIsTakenOver() {
+        // Claimed by a user which was never inserted, long ago
+        LocalDate birthday = LocalDate.parse("1980-03-01");
+        shards.jdbcTemplate(shards.shardOf("ShardAbandoned", birthday))
+                .update("insert into user_key (name, birthday, user_id) values ('ShardAbandoned', ?, 42)", birthday);
+        UserDto user = userService.save(user("ShardAbandoned", "1980-03-01"), true);
+        Assertions.assertEquals(user.getId(), userService.findByNameAndBirthday("ShardAbandoned", birthday).getId());
+        userService.deleteById(user.getId());
+    }
+
+    @Test
+    void testSearchMergesTheShards() {
+        List<UserDto> users = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                users.add(userService.save(user("ShardSearch" + (char) ('a' + i % 10), "1980-04-" + (10 + i)), true));
+            }
+            List<UserDto> expected = users.stream().sorted(Comparator.comparing(UserDto::getName)
+                    .thenComparing(UserDto::getId).reversed()).toList();
+            List<UserDto> found = new ArrayList<>();
+            UserSearchCriteria criteria = UserSearchCriteria.builder().name("ShardSearch").sort("name").desc(true).limit(6).build();
+            UserSearchResultDto result = userService.search(criteria);
+            Assertions.assertEquals(20, result.getEstimatedCount());
+            found.addAll(result.getUsers());
+            while (result.getNextCursor() != null) {
+                criteria.setCursor(result.getNextCursor());
+                result = userService.search(criteria);
+                found.addAll(result.getUsers());
+            }
+            Assertions.assertEquals(expected.stream().map(UserDto::getId).toList(), found.stream().map(UserDto::getId).toList());
+        } finally {
+            Assertions.assertEquals(20, userService.deleteAll(null, UserSearchCriteria.builder().name("ShardSearch").build()));
+        }
+        for (int shard = 0; shard < shards.count(); shard++) {
+            Assertions.assertEquals(0, count(shard, "select count(*) from user_key where name like 'ShardSearch%'"));
+        }
+    }
+
+    @Test
+    void testBatchOverTheShards() {
+        List<UserDto> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(user("ShardBatch" + i, "1980-05-01"));
+        }
+        users.add(user("ShardBatch0", "1980-05-01"));
+        List<UserBatchResultDto> results = userService.saveBatch(users, 0);
+        Assertions.assertEquals(10, results.stream().filter(result -> result.getStatus() == UserBatchResultDto.Status.CREATED).count());
+        Assertions.assertEquals(120, results.get(10).getErrorCode());
+        Assertions.assertEquals(10, userService.deleteAll(null, UserSearchCriteria.builder().name("ShardBatch").build()));
+    }
+
+    @Test
+    void testSaveAllOfNewAndExistingUsers() {
+        UserDto existing = userService.save(user("ShardSaveAll", "1980-06-01"), true);
+        User renamed = userRepository.findById(existing.getId()).orElseThrow();
+        renamed.setBirthday(LocalDate.parse("1980-06-02"));
+        renamed.setGender("Female");
+        User created = User.builder().name("ShardSaveAll").birthday(LocalDate.parse("1980-06-03")).gender("Male")
+                .countryOfResidence(countryService.findByCountryCode("fr").orElseThrow()).build();
+        try {
+            // The renamed user moves its key
+            List<User> saved = userRepository.saveAll(List.of(renamed, created));
+            Assertions.assertEquals(List.of(existing.getId(), created.getId()), saved.stream().map(User::getId).toList());
+            Assertions.assertNull(userService.findByNameAndBirthday("ShardSaveAll", LocalDate.parse("1980-06-01")));
+            Assertions.assertEquals(existing.getId(), userService.findByNameAndBirthday("ShardSaveAll", LocalDate.parse("1980-06-02")).getId());
+
+            // Merged by any property of UserDto
+            List<UserDto> byGender = userRepository.search(UserSpecifications.nameStartsWith("ShardSaveAll"),
+                    Sort.by(Sort.Direction.DESC, "gender"), 10);
+            Assertions.assertEquals(List.of("Male", "Female"), byGender.stream().map(UserDto::getGender).toList());
+        } finally {
+            Assertions.assertEquals(2, userService.deleteAll(null, UserSearchCriteria.builder().name("ShardSaveAll").build()));
+        }
+    }
+
+    @Test
+    void testCountriesAreReplicated() {
+        Country country = new Country();
+        country.setCountryCode("sh");
+        country.setName("Shardland");
+        countryService.save(country);
+        for (int shard = 0; shard < shards.count(); shard++) {
+            Assertions.assertEquals(1, count(shard, "select count(*) from country where country_code = 'sh' and id = " + country.getId()));
+        }
+        Assertions.assertTrue(countryService.findByCountryCode("sh").isPresent());
+    }
+
+    @Test
+    void testSnowflakeIds() throws InterruptedException {
+        Clock clock = Clock.fixed(Instant.parse("2025-01-01T00:00:00Z"), ZoneOffset.UTC);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, clock);
+        long previous = 0;
+        // Beyond 4096 ids in the same millisecond, they are taken from the next ones
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            Assertions.assertTrue(id > previous);
+            Assertions.assertEquals(5, SnowflakeIdGenerator.nodeIdOf(id));
+            previous = id;
+        }
+        Assertions.assertEquals(Instant.parse("2025-01-01T00:00:00.002Z"), SnowflakeIdGenerator.timestampOf(previous));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024, clock));
+
+        // Unique across threads and nodes
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        SnowflakeIdGenerator other = new SnowflakeIdGenerator(6, clock);
+        Thread[] threads = IntStream.range(0, 8).mapToObj(i -> new Thread(() -> {
+            for (int j = 0; j < 10_000; j++) {
+                ids.add((i % 2 == 0 ? generator : other).nextId());
+            }
+        })).toArray(Thread[]::new);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(80_000, ids.size());
+        Assertions.assertEquals(new HashSet<>(List.of(5, 6)),
+                new HashSet<>(ids.stream().map(SnowflakeIdGenerator::nodeIdOf).toList()));
+    }
+
+    private int count(int shard, String query) {
+        return shards.jdbcTemplate(shard).queryForObject(query, Integer.class);
+    }
+
+    private static UserDto user(String name, String birthday) {
+        return UserDto.builder().name(name).birthday(LocalDate.parse(birthday)).countryCode("fr").build();
+    }
+}
@@ -1,23 +1,47 @@
 package com.gvormbrock.test;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.gvormbrock.test.aspect.QueryMetrics;
+import com.gvormbrock.test.config.CborConfig;
+import com.gvormbrock.test.config.EntityCacheConfig;
+import com.gvormbrock.test.config.EntityCacheEndpoint;
+import com.gvormbrock.test.config.NativeHints;
+import com.gvormbrock.test.controller.GlobalExceptionHandler;
 import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.ErrorDetails;
+import com.gvormbrock.test.model.User;
 import com.gvormbrock.test.service.UserService;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
-import java.time.Instant;
-import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
@@ -32,14 +56,18 @@ class UserControllerTests {
     @Autowired
     private UserService userService;
 
-    static Date birthdayDate1;
-    static Date birthdayDate2;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private EntityCacheEndpoint entityCacheEndpoint;
+
+    static LocalDate birthdayDate1;
+    static LocalDate birthdayDate2;
 
     static {
-        Instant instant1 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-20", Instant::from);
-        birthdayDate1 = new Date(instant1.getEpochSecond() * 1000L);
-        Instant instant2 = DateFormatting.DATE_TIME_FORMATTER.parse("1971-10-21", Instant::from);
-        birthdayDate2 = new Date(instant2.getEpochSecond() * 1000L);
+        birthdayDate1 = LocalDate.parse("1971-10-20");
+        birthdayDate2 = LocalDate.parse("1971-10-21");
     }
 
     @Test
@@ -61,6 +89,228 @@ class UserControllerTests {
                 .andExpect((jsonPath("$[1].name").value("UserControllerTest")));
     }
 
+    @Test
+    void testFindAllUsersPaginated() throws Exception {
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+        this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerTest2\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+
+        this.mvc.perform(MockMvcRequestBuilders.get("/users?limit=1&after=" + (user.getId() - 1)))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value("UserControllerTest"));
+        this.mvc.perform(MockMvcRequestBuilders.get("/users?limit=1&after=" + user.getId())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value("UserControllerTest2"));
+    }
+
+    @Test
+    void testSearchUsers() throws Exception {
+        this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerSearchTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Female\",\"name\":\"UserControllerSearchTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+
+        MvcResult result = this.mvc.perform(MockMvcRequestBuilders.get("/users/search?name=UserControllerSearch&countryCode=fr&bornFrom=2000-10-19&sort=name&limit=1"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].birthday").value("2000-10-19"))
+                .andExpect(jsonPath("$.estimatedCount").value(2))
+                .andExpect(jsonPath("$.countCapped").value(false))
+                .andReturn();
+        String cursor = new ObjectMapper().readTree(result.getResponse().getContentAsString()).get("nextCursor").asText();
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/search?name=UserControllerSearch&countryCode=fr&bornFrom=2000-10-19&sort=name&limit=1&cursor=" + cursor))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.users[0].birthday").value("2000-10-20"))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist())
+                .andExpect(jsonPath("$.estimatedCount").doesNotExist());
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/search?gender=Female&name=UserControllerSearch"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1));
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/search?sort=phoneNumber"))
+                .andExpect(MockMvcResultMatchers.status().isInternalServerError())
+                .andExpect(jsonPath("$.errorCode").value(102));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // The stream is read by another thread and transaction
+    void testStreamAllUsersAsNdjson() throws Exception {
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerStreamTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+
+        try {
+            MvcResult result = this.mvc.perform(MockMvcRequestBuilders.get("/users")
+                            .accept(MediaType.APPLICATION_NDJSON))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            String body = this.mvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_NDJSON))
+                    .andReturn().getResponse().getContentAsString();
+            ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+            List<UserDto> users = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                users.add(objectMapper.readValue(line, UserDto.class));
+            }
+            Assertions.assertTrue(users.stream().anyMatch(u -> u.getId().equals(user.getId())));
+        } finally {
+            this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isNoContent());
+        }
+    }
+
+    @Test
+    void testCborContentNegotiation() throws Exception {
+        ObjectMapper cborMapper = cborMapper();
+        UserDto user = UserDto.builder().gender("Male").name("UserCborTest").birthday(birthdayDate1).countryCode("fr").build();
+        byte[] body = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_CBOR).contentType(MediaType.APPLICATION_CBOR)
+                        .content(cborMapper.writeValueAsBytes(user)))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        UserDto created = cborMapper.readValue(body, UserDto.class);
+        Assertions.assertEquals("France", created.getCountryName());
+
+        body = this.mvc.perform(MockMvcRequestBuilders.get("/users/" + created.getId()).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        Assertions.assertEquals(birthdayDate1, cborMapper.readValue(body, UserDto.class).getBirthday());
+
+        body = this.mvc.perform(MockMvcRequestBuilders.get("/users?limit=1&after=" + (created.getId() - 1)).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        UserDto[] page = cborMapper.readValue(body, UserDto[].class);
+        Assertions.assertEquals(created.getId(), page[0].getId());
+
+        // A CBOR sequence: the users one after the other
+        ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        sequence.write(cborMapper.writeValueAsBytes(UserDto.builder().name("UserCborBatchTest").birthday(birthdayDate1).countryCode("fr").build()));
+        sequence.write(cborMapper.writeValueAsBytes(UserDto.builder().name("UserCborBatchTest").birthday(birthdayDate2).countryCode("fr").build()));
+        this.mvc.perform(MockMvcRequestBuilders.post("/users/batch").accept(MediaType.APPLICATION_JSON).contentType(CborConfig.APPLICATION_CBOR_SEQ)
+                        .content(sequence.toByteArray()))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].status").value("CREATED"));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // The stream is read by another thread and transaction
+    void testStreamAllUsersAsCborSequence() throws Exception {
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerCborStreamTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+
+        try {
+            MvcResult result = this.mvc.perform(MockMvcRequestBuilders.get("/users")
+                            .accept(CborConfig.APPLICATION_CBOR_SEQ))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            byte[] body = this.mvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.content().contentType(CborConfig.APPLICATION_CBOR_SEQ))
+                    .andReturn().getResponse().getContentAsByteArray();
+            List<UserDto> users;
+            try (MappingIterator<UserDto> iterator = cborMapper().readerFor(UserDto.class).readValues(body)) {
+                users = iterator.readAll();
+            }
+            Assertions.assertTrue(users.stream().anyMatch(u -> u.getId().equals(user.getId())));
+        } finally {
+            this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isNoContent());
+        }
+    }
+
+    @Test
+    void testMethodMetricsEndpoint() throws Exception {
+        this.mvc.perform(MockMvcRequestBuilders.get("/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/methods"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$['UserController.listUsers(long,int,WebRequest)'].count").isNumber())
+                .andExpect(jsonPath("$['UserService.findAll(long,int)'].p99Nanos").isNumber())
+                .andExpect(jsonPath("$['UserMapper.mapToUserDto(User)']").doesNotExist());
+    }
+
+    @Test
+    void testQueryAndTransactionMetrics() throws Exception {
+        Assertions.assertEquals("select u.id from user_table u where u.id in (?, ...) and u.name = ? limit ?",
+                QueryMetrics.normalize("select u.id\n  from user_table u where u.id in (1, 2,3) and u.name = 'O''Neil' limit ?"));
+        Assertions.assertEquals("insert into t (a,b) values (?, ...), ...",
+                QueryMetrics.normalize("insert into t (a,b) values (?, ?), (?, ?), (?,?)"));
+
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + Long.MAX_VALUE).accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/queries"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString("from user_table")));
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/db.query?tag=type:select"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/users.transaction?tag=method:findById&tag=outcome:rollback"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.measurements[?(@.statistic == 'COUNT')].value").isNotEmpty());
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/hikaricp.connections.acquire"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // Each request in its own session to go through the cache
+    void testUserSecondLevelCache() throws Exception {
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserControllerCacheTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+        Cache cache = entityManagerFactory.getCache();
+        Assertions.assertTrue(cache.contains(User.class, user.getId()));
+
+        long hitCount = entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount();
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.name").value("UserControllerCacheTest"));
+        Assertions.assertEquals(hitCount + 1, entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount());
+
+        // The update loads the user to merge from the cache, and updates the cached entry read by the next GET
+        this.mvc.perform(MockMvcRequestBuilders.put("/users?verify=false").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":" + user.getId() + ",\"gender\":\"Female\",\"name\":\"UserControllerCacheTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        Assertions.assertEquals(hitCount + 2, entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount());
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.gender").value("Female"));
+        Assertions.assertEquals(hitCount + 3, entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount());
+
+        this.mvc.perform(MockMvcRequestBuilders.get("/actuator/entitycache"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$['com.gvormbrock.test.model.User'].hitRatio").isNumber())
+                .andExpect(jsonPath("$['com.gvormbrock.test.model.Country'].evictionCount").isNumber());
+
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()))
+                .andExpect(MockMvcResultMatchers.status().isNoContent());
+        // The deleted user is not served from the cache anymore (READ_WRITE leaves a lock entry in place of it)
+        hitCount = entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            Assertions.assertNull(entityManager.find(User.class, user.getId()));
+        } finally {
+            entityManager.close();
+        }
+        Assertions.assertEquals(hitCount, entityCacheEndpoint.regions().get(EntityCacheConfig.USER_REGION).hitCount());
+    }
+
     @Test
     void testFindById() throws Exception {
 
@@ -82,9 +332,114 @@ class UserControllerTests {
     void testFindByIdNotFound() throws Exception {
         this.mvc.perform(MockMvcRequestBuilders.get("/users/"+ Long.MAX_VALUE)
                         .accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.errorCode").value(400))
+                .andExpect(jsonPath("$.devErrorMessage").doesNotExist());
+    }
+
+    @Test
+    void testConditionalRequestsOnUser() throws Exception {
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserETagTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+
+        String eTag = this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.version").doesNotExist())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(eTag);
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andExpect(MockMvcResultMatchers.content().string(""));
+        // The CBOR body is another representation: the JSON tag does not validate it
+        String cborETag = this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId())
+                        .accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotEquals(eTag, cborETag);
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()).header(HttpHeaders.IF_NONE_MATCH, cborETag))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        // Updated with the current version: a new ETag
+        String updatedETag = this.mvc.perform(MockMvcRequestBuilders.put("/users?verify=false").contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .content("{\"id\":" + user.getId() + ",\"gender\":\"Female\",\"name\":\"UserETagTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotEquals(eTag, updatedETag);
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, updatedETag))
+                .andExpect(jsonPath("$.gender").value("Female"));
+
+        // The old version does not match anymore
+        this.mvc.perform(MockMvcRequestBuilders.put("/users?verify=false").contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .content("{\"id\":" + user.getId() + ",\"gender\":\"Male\",\"name\":\"UserETagTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed())
+                .andExpect(jsonPath("$.errorCode").value(140));
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()).header(HttpHeaders.IF_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()).header(HttpHeaders.IF_MATCH, updatedETag))
+                .andExpect(MockMvcResultMatchers.status().isNoContent());
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()).header(HttpHeaders.IF_MATCH, "*"))
                 .andExpect(MockMvcResultMatchers.status().isNotFound());
     }
 
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // The list ETag changes after the commits
+    void testConditionalRequestsOnUserList() throws Exception {
+        String eTag = this.mvc.perform(MockMvcRequestBuilders.get("/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        this.mvc.perform(MockMvcRequestBuilders.get("/users").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+        this.mvc.perform(MockMvcRequestBuilders.get("/users").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR));
+
+        ResultActions res = this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserListETagTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isCreated());
+        UserDto user = jsonGetUserDto(res);
+        try {
+            String createdETag = this.mvc.perform(MockMvcRequestBuilders.get("/users").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+            Assertions.assertNotEquals(eTag, createdETag);
+        } finally {
+            this.mvc.perform(MockMvcRequestBuilders.delete("/users/" + user.getId()))
+                    .andExpect(MockMvcResultMatchers.status().isNoContent());
+        }
+    }
+
+    @Test
+    void testErrorStackTraceInDevMode() throws Exception {
+        GlobalExceptionHandler handler = new GlobalExceptionHandler(new ObjectMapper(), true);
+        ErrorDetails errorDetails = new ObjectMapper().readValue(
+                handler.exception(new IllegalStateException("Unexpected")).getBody(), ErrorDetails.class);
+        Assertions.assertEquals("Unexpected", errorDetails.getErrorMessage());
+        Assertions.assertTrue(errorDetails.getDevErrorMessage().contains("testErrorStackTraceInDevMode"));
+    }
+
+    @Test
+    void testNativeHints() {
+        RuntimeHints hints = new RuntimeHints();
+        new NativeHints().registerHints(hints, getClass().getClassLoader());
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(UserDto.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(User.class)
+                .withMemberCategory(MemberCategory.DECLARED_FIELDS).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.reflection().onType(ErrorDetails.class).test(hints));
+        Assertions.assertTrue(RuntimeHintsPredicates.resource().forResource("db/schema.sql").test(hints));
+    }
+
     @Test
     void testPostUser() throws Exception {
         this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
@@ -92,6 +447,48 @@ class UserControllerTests {
                 .andExpect(MockMvcResultMatchers.status().isCreated());
     }
 
+    @Test
+    void testPostUserReturnsAllViolations() throws Exception {
+        this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"id\":null,\"gender\":\"Robot\",\"name\":\"Vo\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}"))
+                .andExpect(MockMvcResultMatchers.status().isInternalServerError())
+                .andExpect(jsonPath("$.errorCode").value(101))
+                .andExpect(jsonPath("$.additionalData.violations.length()").value(2))
+                .andExpect(jsonPath("$.additionalData.violations[0].field").value("gender"))
+                .andExpect(jsonPath("$.additionalData.violations[1].field").value("name"));
+    }
+
+    @Test
+    void testPostUsersBatch() throws Exception {
+        this.mvc.perform(MockMvcRequestBuilders.post("/users/batch").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"name\":\"BatchTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\"},"
+                                + "{\"name\":\"BatchTest\",\"birthday\":\"2000-10-19\",\"countryName\":\"France\"},"
+                                + "{\"name\":\"BatchTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"en\"},"
+                                + "{\"name\":\"BT\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\"}]"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[0].user.id").isNumber())
+                .andExpect(jsonPath("$[1].status").value("REJECTED"))
+                .andExpect(jsonPath("$[1].errorCode").value(120))
+                .andExpect(jsonPath("$[2].errorCode").value(110))
+                .andExpect(jsonPath("$[3].index").value(3))
+                .andExpect(jsonPath("$[3].errorCode").value(101))
+                .andExpect(jsonPath("$[3].violations[0].field").value("name"));
+    }
+
+    @Test
+    void testPostUsersBatchAsNdjson() throws Exception {
+        this.mvc.perform(MockMvcRequestBuilders.post("/users/batch").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"name\":\"BatchTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\"}\n"
+                                + "{\"name\":\"BatchTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\"}\n"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].index").value(1));
+    }
+
     @Test
     void testPutUserUpdate() throws Exception {
 
@@ -146,17 +543,45 @@ class UserControllerTests {
 
     }
 
+    @Test
+    void testDeleteUsers() throws Exception {
+        UserDto user1 = jsonGetUserDto(this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserBulkDeleteTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\",\"phoneNumber\":null}")));
+        UserDto user2 = jsonGetUserDto(this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserBulkDeleteTest\",\"birthday\":\"2000-10-20\",\"countryCode\":\"fr\",\"phoneNumber\":null}")));
+        jsonGetUserDto(this.mvc.perform(MockMvcRequestBuilders.post("/users").accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\":null,\"gender\":\"Male\",\"name\":\"UserBulkDeleteTest\",\"birthday\":\"2000-10-21\",\"countryCode\":\"fr\",\"phoneNumber\":null}")));
+
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users?id=" + user1.getId() + "&id=" + user2.getId()))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.deleted").value(2));
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users?name=UserBulkDelete&bornFrom=2000-10-21"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(jsonPath("$.deleted").value(1));
+        this.mvc.perform(MockMvcRequestBuilders.get("/users/" + user1.getId()))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        // Never all the users by mistake
+        this.mvc.perform(MockMvcRequestBuilders.delete("/users"))
+                .andExpect(MockMvcResultMatchers.status().isInternalServerError())
+                .andExpect(jsonPath("$.errorCode").value(102));
+    }
+
     @Test
     void testDeleteUserNotFound() throws Exception {
 
         this.mvc.perform(MockMvcRequestBuilders.delete("/users/"+ Long.MAX_VALUE)
                         .accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.status().isNotFound());
+                .andExpect(MockMvcResultMatchers.status().isNotFound())
+                .andExpect(jsonPath("$.errorCode").value(401));
+    }
+
+    private static ObjectMapper cborMapper() {
+        return new CBORMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     }
 
     private static UserDto jsonGetUserDto(ResultActions resultActions) throws UnsupportedEncodingException, JsonProcessingException {
         String response = resultActions.andReturn().getResponse().getContentAsString();
-        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
         return objectMapper.readValue(response, UserDto.class);
     }
 }
@@ -0,0 +1,58 @@
+package com.gvormbrock.test;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.virtual-threads.enabled=true", "app.virtual-threads.max-pool-size=7",
+                "app.virtual-threads.max-connections=3000"})
+class VirtualThreadsTests {
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private HikariDataSource dataSource;
+
+    @Autowired
+    private ServletWebServerApplicationContext context;
+
+    @TestConfiguration
+    static class ThreadController {
+        @RestController
+        static class CurrentThreadController {
+            @GetMapping("/test/virtual")
+            public boolean isVirtual() {
+                return Thread.currentThread().isVirtual();
+            }
+        }
+    }
+
+    @Test
+    void testRequestsRunOnVirtualThreads() {
+        Assertions.assertEquals(Boolean.TRUE, restTemplate.getForObject("/test/virtual", Boolean.class));
+        Assertions.assertEquals(200, restTemplate.getForEntity("/users", String.class).getStatusCode().value());
+    }
+
+    @Test
+    void testConnectionPoolIsSized() {
+        Assertions.assertEquals(7, dataSource.getMaximumPoolSize());
+        Assertions.assertEquals(7, dataSource.getMinimumIdle());
+    }
+
+    @Test
+    void testMaxConnections() {
+        Connector connector = ((TomcatWebServer) context.getWebServer()).getTomcat().getConnector();
+        Assertions.assertEquals(3000, ((AbstractProtocol<?>) connector.getProtocolHandler()).getMaxConnections());
+    }
+}
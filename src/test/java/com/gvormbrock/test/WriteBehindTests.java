@@ -0,0 +1,145 @@
+package com.gvormbrock.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gvormbrock.test.controller.GlobalExceptionHandler;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.dto.UserWriteStatusDto;
+import com.gvormbrock.test.exception.ServiceUnavailableException;
+import com.gvormbrock.test.service.BoundedRingBuffer;
+import com.gvormbrock.test.service.UserService;
+import com.gvormbrock.test.service.UserWriteBehind;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.write-behind.enabled=true", "app.write-behind.max-delay=200ms"})
+class WriteBehindTests {
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserWriteBehind userWriteBehind;
+
+    @Test
+    void testPostUserIsWrittenBehind() throws Exception {
+        UserDto user = UserDto.builder().name("WriteBehindTest").birthday(LocalDate.parse("1990-01-01")).countryCode("fr").build();
+        ResponseEntity<UserDto> response = restTemplate.postForEntity("/users", user, UserDto.class);
+        Assertions.assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        long id = response.getBody().getId();
+        Assertions.assertEquals("/users/" + id + "/status", response.getHeaders().getLocation().toString());
+        Assertions.assertEquals("France", response.getBody().getCountryName());
+
+        // Queued: a second user of the same name and birthday is rejected
+        Assertions.assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, restTemplate.postForEntity("/users", user, String.class).getStatusCode());
+
+        UserWriteStatusDto status = awaitWritten(id);
+        Assertions.assertEquals(UserWriteStatusDto.Status.CREATED, status.getStatus());
+        Assertions.assertEquals("WriteBehindTest", restTemplate.getForObject("/users/" + id, UserDto.class).getName());
+        restTemplate.delete("/users/" + id);
+    }
+
+    @Test
+    void testWriteStatusNotFound() {
+        Assertions.assertEquals(HttpStatus.NOT_FOUND,
+                restTemplate.getForEntity("/users/" + Long.MAX_VALUE + "/status", String.class).getStatusCode());
+    }
+
+    @Test
+    void testStopFlushesTheQueue() {
+        UserDto user = userService.saveWriteBehind(
+                UserDto.builder().name("WriteBehindStop").birthday(LocalDate.parse("1990-01-02")).countryCode("fr").build());
+        Assertions.assertEquals(UserWriteStatusDto.Status.PENDING, userService.findWriteStatus(user.getId()).getStatus());
+        userWriteBehind.stop();
+        try {
+            Assertions.assertEquals(UserWriteStatusDto.Status.CREATED, userService.findWriteStatus(user.getId()).getStatus());
+            Assertions.assertThrows(ServiceUnavailableException.class, () -> userService.saveWriteBehind(
+                    UserDto.builder().name("WriteBehindStop").birthday(LocalDate.parse("1990-01-03")).countryCode("fr").build()));
+        } finally {
+            userWriteBehind.start();
+            restTemplate.delete("/users/" + user.getId());
+        }
+    }
+
+    @Test
+    void testServiceUnavailableHasRetryAfter() throws Exception {
+        GlobalExceptionHandler handler = new GlobalExceptionHandler(new ObjectMapper(), false);
+        ResponseEntity<byte[]> response = handler.serviceUnavailableException(new ServiceUnavailableException(130, "Full", 1));
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        Assertions.assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void testRingBufferIsBoundedAndOrdered() {
+        BoundedRingBuffer<Integer> queue = new BoundedRingBuffer<>(3);
+        Assertions.assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(queue.offer(i));
+        }
+        Assertions.assertFalse(queue.offer(4));
+        Assertions.assertEquals(4, queue.size());
+        Assertions.assertEquals(0, queue.poll());
+        Assertions.assertTrue(queue.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        Assertions.assertEquals(4, queue.drainTo(drained, 10));
+        Assertions.assertEquals(List.of(1, 2, 3, 4), drained);
+        Assertions.assertNull(queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void testRingBufferWithConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int count = 20_000;
+        BoundedRingBuffer<Integer> queue = new BoundedRingBuffer<>(64);
+        List<Integer> received = new ArrayList<>(producers * count);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int first = p * count;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = first; i < first + count; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        // A single consumer, as the writer of UserWriteBehind
+        while (received.size() < producers * count) {
+            if (queue.drainTo(received, 64) == 0) {
+                Thread.yield();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Integer> distinct = new HashSet<>(received);
+        Assertions.assertEquals(producers * count, distinct.size());
+        Assertions.assertNull(queue.poll());
+    }
+
+    private UserWriteStatusDto awaitWritten(long id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            UserWriteStatusDto status = restTemplate.getForObject("/users/" + id + "/status", UserWriteStatusDto.class);
+            if (status.getStatus() != UserWriteStatusDto.Status.PENDING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("The user " + id + " is still pending");
+    }
+}
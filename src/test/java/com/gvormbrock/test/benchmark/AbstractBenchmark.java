@@ -0,0 +1,34 @@
+package com.gvormbrock.test.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The configuration shared by the JMH benchmarks, inherited by their classes: a benchmark only declares the
+ * annotations it changes (the mode, the time unit, the threads).
+ * <p>
+ * The single entry point to run them out of Maven: AbstractBenchmark [RegExp...] runs the benchmarks matching the
+ * regular expressions (for instance MapperBenchmark), all the benchmarks of this package without any.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class AbstractBenchmark {
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            options.include(AbstractBenchmark.class.getPackageName() + "\\..*Benchmark");
+        }
+        for (String include : args) {
+            options.include(include);
+        }
+        new Runner(options.build()).run();
+    }
+}
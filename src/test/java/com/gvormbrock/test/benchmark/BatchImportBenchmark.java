@@ -0,0 +1,52 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of UserService.saveBatch into the in memory H2 database: one operation imports BATCH_CHUNK_SIZE new
+ * users, so the users per second are the operations per second multiplied by BATCH_CHUNK_SIZE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchImportBenchmark extends AbstractBenchmark {
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long batchNumber;
+
+    @Setup
+    public void setup() {
+        context = SpringApplication.run(TestApplication.class,
+                "--spring.main.web-application-type=none",
+                "--logging.level.com.gvormbrock.test=WARN");
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int saveBatch() {
+        long batch = batchNumber++;
+        List<UserDto> users = new ArrayList<>(UserService.BATCH_CHUNK_SIZE);
+        for (int i = 0; i < UserService.BATCH_CHUNK_SIZE; i++) {
+            users.add(UserDto.builder()
+                    .name("Batch" + batch + "-" + i)
+                    .birthday(LocalDate.parse("1971-10-20"))
+                    .countryCode("fr")
+                    .build());
+        }
+        return userService.saveBatch(users, 0).size();
+    }
+}
@@ -0,0 +1,92 @@
+package com.gvormbrock.test.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare the JMH results of the benchmarks profile (JSON) to the stored baseline, or replace the baseline.
+ * The allocated bytes per operation (gc.alloc.rate.norm) do not depend on the machine: an allocation above the
+ * baseline by more than ALLOCATION_TOLERANCE fails the comparison. The times depend on the machine, they are only
+ * printed with their ratio to the baseline.
+ * <p>
+ * Usage: BenchmarkBaseline result.json baseline.json [update]
+ */
+public class BenchmarkBaseline {
+    private static final double ALLOCATION_TOLERANCE = 0.10;
+    // Below this difference the allocations are equal (JMH measures a few bytes of noise)
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    public record Result(double score, String unit, double allocatedBytes) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Map<String, Result> results = read(objectMapper.readTree(new File(args[0])));
+        File baselineFile = new File(args[1]);
+        if (args.length > 2 && args[2].equals("update")) {
+            objectMapper.writeValue(baselineFile, results);
+            System.out.println("Baseline " + baselineFile + " updated with " + results.size() + " results");
+            return;
+        }
+
+        Map<String, Result> baseline = new TreeMap<>();
+        if (baselineFile.exists()) {
+            objectMapper.readerForMapOf(Result.class).<Map<String, Result>>readValue(baselineFile).forEach(baseline::put);
+        }
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %7s %12s %12s%n", "benchmark", "baseline", "current", "ratio",
+                "base B/op", "B/op");
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result current = entry.getValue();
+            Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("%-70s %14s %14.1f %7s %12s %12.0f  NEW%n", entry.getKey(), "-", current.score(), "-",
+                        "-", current.allocatedBytes());
+                continue;
+            }
+            boolean regression = current.allocatedBytes() > base.allocatedBytes() * (1 + ALLOCATION_TOLERANCE) + ALLOCATION_SLACK_BYTES;
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-70s %14.1f %14.1f %7.2f %12.0f %12.0f%s%n", entry.getKey(), base.score(), current.score(),
+                    current.score() / base.score(), base.allocatedBytes(), current.allocatedBytes(),
+                    regression ? "  ALLOCATION REGRESSION" : "");
+        }
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmarks allocate more than the baseline " + baselineFile);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the results by benchmark name with its parameters, like ErrorRenderingBenchmark.notFound(includeStacktrace=true)
+     */
+    private static Map<String, Result> read(JsonNode jmhResults) {
+        Map<String, Result> results = new TreeMap<>();
+        for (JsonNode jmhResult : jmhResults) {
+            String benchmark = jmhResult.get("benchmark").asText();
+            StringBuilder name = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+            JsonNode params = jmhResult.get("params");
+            if (params != null) {
+                name.append('(');
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> param = it.next();
+                    name.append(param.getKey()).append('=').append(param.getValue().asText()).append(it.hasNext() ? "," : "");
+                }
+                name.append(')');
+            }
+            JsonNode primaryMetric = jmhResult.get("primaryMetric");
+            JsonNode allocation = jmhResult.path("secondaryMetrics").path("gc.alloc.rate.norm");
+            results.put(name.toString(), new Result(primaryMetric.get("score").asDouble(),
+                    primaryMetric.get("scoreUnit").asText(), allocation.path("score").asDouble(Double.NaN)));
+        }
+        return results;
+    }
+}
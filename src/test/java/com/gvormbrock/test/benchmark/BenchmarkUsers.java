@@ -0,0 +1,48 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.repository.CountryRepository;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The data of the benchmarks which do not start the application
+ */
+final class BenchmarkUsers {
+    static final String USER_JSON = "{\"id\":1,\"gender\":\"Male\",\"name\":\"Benchmark\",\"birthday\":\"1971-10-20\","
+            + "\"countryName\":\"France\",\"countryCode\":\"fr\",\"phoneNumber\":\"+33610287915\"}";
+
+    private BenchmarkUsers() {
+    }
+
+    static UserDto userDto() {
+        return UserDto.builder()
+                .gender("Male")
+                .name("Benchmark")
+                .birthday(LocalDate.parse("1971-10-20"))
+                .countryCode("fr")
+                .phoneNumber("+33610287915")
+                .build();
+    }
+
+    /**
+     * A CountryRepository which only answers findAll, with the countries of data.sql: enough for CountryService
+     */
+    static CountryRepository countryRepository() {
+        List<Country> countries = List.of(
+                new Country(1L, "France", "fr"),
+                new Country(2L, "England", "en"),
+                new Country(3L, "Germany", "de"),
+                new Country(4L, "Spain", "es"));
+        return (CountryRepository) Proxy.newProxyInstance(CountryRepository.class.getClassLoader(),
+                new Class<?>[]{CountryRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("findAll") && method.getParameterCount() == 0) {
+                        return countries;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
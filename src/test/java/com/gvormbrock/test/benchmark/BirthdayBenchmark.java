@@ -0,0 +1,86 @@
+package com.gvormbrock.test.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.Today;
+import lombok.Getter;
+import lombok.Setter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The birthday handling of the save path: the JSON decoding and encoding of the request and response bodies and the
+ * age check, with the former java.sql.Date birthday and days / 365 age against LocalDate and Today.
+ */
+public class BirthdayBenchmark extends AbstractBenchmark {
+    private static final String JSON = "{\"name\":\"BirthdayBenchmark\",\"birthday\":\"1971-10-20\",\"countryCode\":\"fr\"}";
+
+    private ObjectReader sqlDateReader;
+    private ObjectWriter sqlDateWriter;
+    private ObjectReader localDateReader;
+    private ObjectWriter localDateWriter;
+    private Today today;
+    private SqlDateUserDto sqlDateUser;
+    private UserDto localDateUser;
+
+    @Setup
+    public void setup() throws IOException {
+        // Configured as the ObjectMapper of Spring Boot
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        sqlDateReader = objectMapper.readerFor(SqlDateUserDto.class);
+        sqlDateWriter = objectMapper.writerFor(SqlDateUserDto.class);
+        localDateReader = objectMapper.readerFor(UserDto.class);
+        localDateWriter = objectMapper.writerFor(UserDto.class);
+        today = new Today(Clock.systemDefaultZone());
+        sqlDateUser = sqlDateReader.readValue(JSON);
+        localDateUser = localDateReader.readValue(JSON);
+    }
+
+    @Benchmark
+    public long sqlDateAge() {
+        // As it was done by UserService.countYears
+        java.util.Date now = new java.util.Date();
+        long diffInMillis = Math.abs(now.getTime() - sqlDateUser.getBirthday().getTime());
+        return Math.abs(TimeUnit.DAYS.convert(diffInMillis, TimeUnit.MILLISECONDS) / 365);
+    }
+
+    @Benchmark
+    public int localDateAge() {
+        return today.yearsSince(localDateUser.getBirthday());
+    }
+
+    @Benchmark
+    public byte[] sqlDateJson() throws IOException {
+        SqlDateUserDto user = sqlDateReader.readValue(JSON);
+        return sqlDateWriter.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public byte[] localDateJson() throws IOException {
+        UserDto user = localDateReader.readValue(JSON);
+        return localDateWriter.writeValueAsBytes(user);
+    }
+
+    /**
+     * The former UserDto birthday
+     */
+    @Getter
+    @Setter
+    public static class SqlDateUserDto {
+        private Long id;
+        private String gender;
+        private String name;
+        private Date birthday;
+        private String countryName;
+        private String countryCode;
+        private String phoneNumber;
+    }
+}
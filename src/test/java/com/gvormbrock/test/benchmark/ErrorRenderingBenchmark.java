@@ -0,0 +1,41 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.controller.GlobalExceptionHandler;
+import com.gvormbrock.test.exception.FieldViolation;
+import com.gvormbrock.test.exception.NotFoundException;
+import com.gvormbrock.test.exception.ValidationErrorException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+
+/**
+ * GlobalExceptionHandler: creation of the business exception and rendering of its error body, in the default mode
+ * and in the dev mode (stack traces)
+ */
+public class ErrorRenderingBenchmark extends AbstractBenchmark {
+    @Param({"false", "true"})
+    private boolean includeStacktrace;
+
+    private GlobalExceptionHandler handler;
+    private List<FieldViolation> violations;
+
+    @Setup
+    public void setup() {
+        handler = new GlobalExceptionHandler(Jackson2ObjectMapperBuilder.json().build(), includeStacktrace);
+        violations = List.of(new FieldViolation("gender", "Gender can be only Male or Female"),
+                new FieldViolation("name", "Name must be minimum 3 characters and maximum 50 characters long"));
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> notFound() {
+        return handler.notFoundException(new NotFoundException(400, "User with id = 42 does not exists"));
+    }
+
+    @Benchmark
+    public ResponseEntity<byte[]> validationError() {
+        return handler.validationErrorException(new ValidationErrorException(101,
+                "Validation error : " + violations.get(0).message(), violations));
+    }
+}
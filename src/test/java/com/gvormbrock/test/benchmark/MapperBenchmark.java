@@ -0,0 +1,44 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.mapper.UserMapper;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.model.User;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+
+/**
+ * UserMapper in both directions, as done on each save and each read
+ */
+public class MapperBenchmark extends AbstractBenchmark {
+    private final UserMapper userMapper = Mappers.getMapper(UserMapper.class);
+    private Country country;
+    private UserDto userDto;
+    private User user;
+
+    @Setup
+    public void setup() {
+        country = new Country(1L, "France", "fr");
+        userDto = BenchmarkUsers.userDto();
+        user = User.builder()
+                .id(1L)
+                .gender("Male")
+                .name("MapperBenchmark")
+                .birthday(LocalDate.parse("1971-10-20"))
+                .countryOfResidence(country)
+                .phoneNumber("+33610287915")
+                .build();
+    }
+
+    @Benchmark
+    public User mapToUser() {
+        return userMapper.mapToUser(userDto, country);
+    }
+
+    @Benchmark
+    public UserDto mapToUserDto() {
+        return userMapper.mapToUserDto(user);
+    }
+}
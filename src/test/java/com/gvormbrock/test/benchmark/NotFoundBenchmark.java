@@ -0,0 +1,48 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of GET /users/{id} on an id which does not exist: the whole 404 path, from the dispatcher servlet to
+ * the error body written by GlobalExceptionHandler, with and without the stack traces in the error bodies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NotFoundBenchmark extends AbstractBenchmark {
+    @Param({"false", "true"})
+    private boolean includeStacktrace;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mvc;
+
+    @Setup
+    public void setup() {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = SpringApplication.run(TestApplication.class,
+                "--server.port=0",
+                "--app.errors.include-stacktrace=" + includeStacktrace,
+                "--logging.level.com.gvormbrock.test=WARN");
+        mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int userNotFound() throws Exception {
+        return mvc.perform(MockMvcRequestBuilders.get("/users/" + Long.MAX_VALUE).accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getStatus();
+    }
+}
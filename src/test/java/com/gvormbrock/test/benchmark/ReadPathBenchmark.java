@@ -0,0 +1,63 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read path of GET /users (a page of 100 users) and GET /users/{id}, from the service to the UserDto, with and
+ * without the timing of the SQL statements and transactions (app.sql.metrics.enabled)
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadPathBenchmark extends AbstractBenchmark {
+    private static final long FIRST_SEEDED_ID = 10_000_000L;
+    private static final int TABLE_SIZE = 10_000;
+
+    @Param({"true", "false"})
+    private boolean sqlMetrics;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long id;
+
+    @Setup
+    public void setup() {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = SpringApplication.run(TestApplication.class,
+                "--spring.main.web-application-type=none",
+                "--logging.level.com.gvormbrock.test=WARN",
+                "--app.sql.metrics.enabled=" + sqlMetrics);
+        userService = context.getBean(UserService.class);
+        List<Object[]> rows = new ArrayList<>(TABLE_SIZE);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            rows.add(new Object[]{FIRST_SEEDED_ID + i, "Male", "Seeded" + i, LocalDate.parse("1971-10-20"), "+33610287915"});
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate("insert into user_table(id, gender, name, birthday, phone_number, "
+                + "country_of_residence_id) values (?, ?, ?, ?, ?, 1)", rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<UserDto> findPage() {
+        return userService.findAll(FIRST_SEEDED_ID + 1000, 100);
+    }
+
+    @Benchmark
+    public UserDto findById() {
+        id = id == TABLE_SIZE - 1 ? 0 : id + 1;
+        return userService.findById(FIRST_SEEDED_ID + id);
+    }
+}
@@ -0,0 +1,65 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of UserService.save (with the existence test) according to the number of users in the table, with the
+ * unique (name, birthday) index and without it (as before the index was declared).
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaveLatencyBenchmark extends AbstractBenchmark {
+    private static final long FIRST_SEEDED_ID = 10_000_000L;
+
+    @Param({"1000", "10000", "100000"})
+    private int tableSize;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long userNumber;
+
+    @Setup
+    public void setup() {
+        context = SpringApplication.run(TestApplication.class,
+                "--spring.main.web-application-type=none",
+                "--logging.level.com.gvormbrock.test=WARN");
+        userService = context.getBean(UserService.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        List<Object[]> rows = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            rows.add(new Object[]{FIRST_SEEDED_ID + i, "Seeded" + i, Date.valueOf("1971-10-20")});
+        }
+        jdbcTemplate.batchUpdate("insert into user_table(id, name, birthday, country_of_residence_id) values (?, ?, ?, 1)", rows);
+        if (!indexed) {
+            jdbcTemplate.execute("alter table user_table drop constraint UK_USER_NAME_BIRTHDAY");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserDto save() {
+        return userService.save(UserDto.builder()
+                .name("Saved" + userNumber++)
+                .birthday(LocalDate.parse("1971-10-20"))
+                .countryCode("fr")
+                .build(), true);
+    }
+}
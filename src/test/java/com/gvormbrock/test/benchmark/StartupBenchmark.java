@@ -0,0 +1,125 @@
+package com.gvormbrock.test.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Time to first request of the application according to the way it is started: the process is launched, then
+ * GET /users is sent every 10 ms until it answers 200. The min, mean and max times of the runs are printed.
+ * <ul>
+ *     <li>jvm: the plain jar and its libraries (mvn -Pcds -DskipTests package)</li>
+ *     <li>jvm-aot: the same with the AOT generated code (mvn -Pnative,cds -DskipTests package)</li>
+ *     <li>cds, cds-aot: the same with the class data sharing archive target/app.jsa</li>
+ *     <li>native: the native executable target/test (mvn -Pnative -DskipTests native:compile)</li>
+ * </ul>
+ * The modes which files are not built are skipped.
+ * <p>
+ * Usage: StartupBenchmark [runs per mode, default 5] [modes, default jvm,jvm-aot,cds,cds-aot,native]
+ */
+public class StartupBenchmark {
+    private static final Path TARGET = Path.of("target");
+    private static final Path STARTUP_JAR = TARGET.resolve("test-0.0.1-SNAPSHOT-startup.jar");
+    private static final Path CDS_ARCHIVE = TARGET.resolve("app.jsa");
+    private static final Path NATIVE_EXECUTABLE = TARGET.resolve("test");
+    private static final String AOT_INITIALIZER = "com/gvormbrock/test/TestApplication__ApplicationContextInitializer.class";
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(2);
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String[] modes = (args.length > 1 ? args[1] : "jvm,jvm-aot,cds,cds-aot,native").split(",");
+        System.out.printf("%-8s %6s %10s %10s %10s%n", "mode", "runs", "min ms", "mean ms", "max ms");
+        for (String mode : modes) {
+            List<String> command = command(mode.trim());
+            if (command == null) {
+                System.out.printf("%-8s skipped: not built%n", mode.trim());
+                continue;
+            }
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            long total = 0;
+            for (int i = 0; i < runs; i++) {
+                long millis = timeToFirstRequest(command);
+                min = Math.min(min, millis);
+                max = Math.max(max, millis);
+                total += millis;
+            }
+            System.out.printf("%-8s %6d %10d %10d %10d%n", mode.trim(), runs, min, total / runs, max);
+        }
+    }
+
+    private static List<String> command(String mode) throws IOException {
+        if (mode.equals("native")) {
+            return Files.isExecutable(NATIVE_EXECUTABLE) ? new ArrayList<>(List.of(NATIVE_EXECUTABLE.toString())) : null;
+        }
+        boolean aot = mode.endsWith("-aot");
+        boolean cds = mode.startsWith("cds");
+        if (!Files.exists(STARTUP_JAR) || (cds && !Files.exists(CDS_ARCHIVE)) || (aot && !hasAotCode())) {
+            return null;
+        }
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        if (cds) {
+            command.addAll(Arrays.asList("-XX:SharedArchiveFile=" + CDS_ARCHIVE, "-Xlog:cds=off", "-Xlog:cds+dynamic=off"));
+        }
+        if (aot) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        command.addAll(List.of("-jar", STARTUP_JAR.toString()));
+        return command;
+    }
+
+    private static boolean hasAotCode() throws IOException {
+        try (JarFile jar = new JarFile(STARTUP_JAR.toFile())) {
+            return jar.getEntry(AOT_INITIALIZER) != null;
+        }
+    }
+
+    private static long timeToFirstRequest(List<String> baseCommand) throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> command = new ArrayList<>(baseCommand);
+        command.addAll(List.of("--server.port=" + port, "--logging.level.root=WARN"));
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users")).GET().build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            while (System.nanoTime() - start < START_TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The application has stopped: " + String.join(" ", command));
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(10);
+            }
+            throw new IllegalStateException("No answer after " + START_TIMEOUT + ": " + String.join(" ", command));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.gvormbrock.test.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.gvormbrock.test.dto.UserDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+
+/**
+ * Jackson reading and writing of a UserDto, with the ObjectMapper configured as by Spring Boot
+ */
+public class UserDtoJsonBenchmark extends AbstractBenchmark {
+    private ObjectReader reader;
+    private ObjectWriter writer;
+    private UserDto userDto;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        reader = objectMapper.readerFor(UserDto.class);
+        writer = objectMapper.writerFor(UserDto.class);
+        userDto = reader.readValue(BenchmarkUsers.USER_JSON);
+    }
+
+    @Benchmark
+    public UserDto read() throws IOException {
+        return reader.readValue(BenchmarkUsers.USER_JSON);
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return writer.writeValueAsBytes(userDto);
+    }
+}
@@ -0,0 +1,64 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.ErrorServerException;
+import com.gvormbrock.test.model.Country;
+import com.gvormbrock.test.service.CountryService;
+import com.gvormbrock.test.service.UserETags;
+import com.gvormbrock.test.service.Today;
+import com.gvormbrock.test.service.UserRules;
+import com.gvormbrock.test.service.UserValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+
+/**
+ * The checks of UserService.save before the database: validation, country resolution (by code and by name), French
+ * and age rules, for an accepted user and a rejected one.
+ */
+public class UserRulesBenchmark extends AbstractBenchmark {
+    private UserValidator userValidator;
+    private UserRules userRules;
+    private UserDto byCountryCode;
+    private UserDto byCountryName;
+    private UserDto notFrench;
+
+    @Setup
+    public void setup() {
+        userValidator = new UserValidator();
+        userValidator.warmUp();
+        userRules = new UserRules(userValidator, new CountryService(BenchmarkUsers.countryRepository(), new UserETags()),
+                new Today(Clock.systemDefaultZone()));
+        byCountryCode = BenchmarkUsers.userDto();
+        byCountryName = BenchmarkUsers.userDto();
+        byCountryName.setCountryCode(null);
+        byCountryName.setCountryName("france");
+        notFrench = BenchmarkUsers.userDto();
+        notFrench.setCountryCode("de");
+    }
+
+    @TearDown
+    public void tearDown() {
+        userValidator.close();
+    }
+
+    @Benchmark
+    public Country checkByCountryCode() {
+        return userRules.check(byCountryCode);
+    }
+
+    @Benchmark
+    public Country checkByCountryName() {
+        return userRules.check(byCountryName);
+    }
+
+    @Benchmark
+    public int checkRejected() {
+        try {
+            userRules.check(notFrench);
+            return 0;
+        } catch (ErrorServerException e) {
+            return e.getErrorCode();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.service.UserValidator;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per request cost of the UserDto validation: a ValidatorFactory built on each save (the former UserService.save)
+ * against the shared UserValidator.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValidationBenchmark extends AbstractBenchmark {
+    private UserDto userDto;
+    private UserValidator userValidator;
+
+    @Setup
+    public void setup() {
+        userDto = UserDto.builder()
+                .gender("Male")
+                .name("ValidationBenchmark")
+                .birthday(LocalDate.parse("1971-10-20"))
+                .countryCode("fr")
+                .phoneNumber("+33610287915")
+                .build();
+        userValidator = new UserValidator();
+        userValidator.warmUp();
+    }
+
+    @TearDown
+    public void tearDown() {
+        userValidator.close();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserDto>> factoryPerRequest() {
+        // As it was done by UserService.save: the factory was never closed
+        Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+        return validator.validate(userDto);
+    }
+
+    @Benchmark
+    public List<?> sharedValidator() {
+        return userValidator.validate(userDto);
+    }
+}
@@ -0,0 +1,108 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import com.gvormbrock.test.aspect.MethodTimer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test comparing the platform thread (default) and the virtual thread modes of the REST layer, and the reactive
+ * profile (WebFlux and R2DBC).
+ * For each mode and each number of concurrent connections, the application is started on a random port and every
+ * connection sends GET /users/{id} in a loop for the given duration. The throughput and the p50, p99 and max latencies
+ * are printed.
+ * <p>
+ * Usage: VirtualThreadsLoadTest [connections, default 1000,10000] [seconds per run, default 20]
+ * [modes, default platform,virtual,reactive]
+ * The number of open files (ulimit -n) must be above twice the number of connections.
+ */
+public class VirtualThreadsLoadTest {
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        // The devtools restarter would run this main method again
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        String[] connectionCounts = (args.length > 0 ? args[0] : "1000,10000").split(",");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.out.printf("%-9s %12s %12s %12s %12s %12s %10s%n",
+                "mode", "connections", "requests/s", "p50 ms", "p99 ms", "max ms", "errors");
+        String[] modes = (args.length > 2 ? args[2] : "platform,virtual,reactive").split(",");
+        for (String mode : modes) {
+            for (String connections : connectionCounts) {
+                run(mode.trim(), Integer.parseInt(connections.trim()), seconds);
+            }
+        }
+    }
+
+    private static void run(String mode, int connections, int seconds) throws Exception {
+        try (ConfigurableApplicationContext context = SpringApplication.run(TestApplication.class,
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--app.virtual-threads.enabled=" + mode.equals("virtual"),
+                "--spring.profiles.active=" + (mode.equals("reactive") ? "reactive" : "default"))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            URI users = URI.create("http://localhost:" + port + "/users");
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .build();
+            HttpResponse<String> created = client.send(HttpRequest.newBuilder(users)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"name\":\"LoadTest\",\"birthday\":\"2000-10-19\",\"countryCode\":\"fr\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Matcher matcher = ID.matcher(created.body());
+            if (!matcher.find()) {
+                throw new IllegalStateException("User not created: " + created.body());
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(users + "/" + matcher.group(1)))
+                    .timeout(Duration.ofSeconds(60))
+                    .GET()
+                    .build();
+
+            MethodTimer latencies = new MethodTimer("GET /users/{id}");
+            LongAdder errors = new LongAdder();
+            long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(1, seconds / 4));
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < connections; i++) {
+                    clients.submit(() -> {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            try {
+                                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                                if (now >= measureFrom) {
+                                    latencies.record(System.nanoTime() - now);
+                                    if (status != 200) {
+                                        errors.increment();
+                                    }
+                                }
+                            } catch (Exception e) {
+                                errors.increment();
+                            }
+                        }
+                        return null;
+                    });
+                }
+            }
+            MethodTimer.MethodStatistics statistics = latencies.statistics();
+            System.out.printf("%-9s %12d %12d %12.1f %12.1f %12.1f %10d%n",
+                    mode, connections, statistics.count() / seconds,
+                    statistics.p50Nanos() / 1e6, statistics.p99Nanos() / 1e6, statistics.maxNanos() / 1e6, errors.sum());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gvormbrock.test.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.gvormbrock.test.dto.UserDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading of a page of users (the body of GET /users) in JSON and in CBOR, with the ObjectMappers
+ * configured as by Spring Boot and CborConfig. The size of the payload in bytes is printed at the setup.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark extends AbstractBenchmark {
+    @Param({"json", "cbor"})
+    private String format;
+
+    @Param({"1", "100"})
+    private int users;
+
+    private ObjectReader reader;
+    private ObjectWriter writer;
+    private List<UserDto> page;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (format.equals("cbor")) {
+            builder.factory(new CBORFactory());
+        }
+        ObjectMapper objectMapper = builder.build();
+        reader = objectMapper.readerForListOf(UserDto.class);
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserDto.class));
+        page = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            UserDto userDto = BenchmarkUsers.userDto();
+            userDto.setId(1_000_000L + i);
+            userDto.setName("Benchmark" + i);
+            userDto.setCountryName("France");
+            page.add(userDto);
+        }
+        payload = writer.writeValueAsBytes(page);
+        System.out.printf("%n%s, %d users: %d bytes%n", format, users, payload.length);
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return writer.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public List<UserDto> read() throws IOException {
+        return reader.readValue(payload);
+    }
+}
@@ -0,0 +1,64 @@
+package com.gvormbrock.test.benchmark;
+
+import com.gvormbrock.test.TestApplication;
+import com.gvormbrock.test.dto.UserDto;
+import com.gvormbrock.test.exception.ServiceUnavailableException;
+import com.gvormbrock.test.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency seen by the callers creating users concurrently: UserService.save commits each user, saveWriteBehind queues
+ * it (a 503 is retried at once, as a client would after Retry-After). The context is closed at the end of each trial,
+ * which flushes the queue.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class WriteBehindBenchmark extends AbstractBenchmark {
+    @Param({"false", "true"})
+    private boolean writeBehind;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private final AtomicLong userNumber = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        context = SpringApplication.run(TestApplication.class,
+                "--spring.main.web-application-type=none",
+                "--logging.level.com.gvormbrock.test=WARN",
+                "--app.write-behind.enabled=" + writeBehind);
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserDto create() {
+        UserDto user = UserDto.builder()
+                .name("Created" + userNumber.incrementAndGet())
+                .birthday(LocalDate.parse("1971-10-20"))
+                .countryCode("fr")
+                .build();
+        if (!writeBehind) {
+            return userService.save(user, true);
+        }
+        while (true) {
+            try {
+                return userService.saveWriteBehind(user);
+            } catch (ServiceUnavailableException e) {
+                Thread.yield();
+            }
+        }
+    }
+}